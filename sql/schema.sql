@@ -1,11 +1,80 @@
 drop table member if exists cascade;
 
+-- version은 MemberRepositoryV4_1, V4_2, V5와 그 데코레이터가 모든 금액 변경에서 올리고 읽는다. (필수 컬럼)
+-- 기존 DB는 다음으로 추가한다. alter table member add column if not exists version bigint not null default 0;
 create table member(
     member_id varchar(10),
     money integer not null default 0,
+    version bigint not null default 0,
     primary key (member_id)
 );
 
 insert into member(member_id, money) values('hi1', 10000);
 insert into member(member_id, money) values('hi2', 20000);
 
+-- 인기 회원(hot account)의 분할 잔액. 잔액 = member.money + sum(member_stripe.money)
+drop table member_stripe if exists cascade;
+
+create table member_stripe(
+    member_id varchar(10),
+    stripe integer,
+    money integer not null default 0,
+    primary key (member_id, stripe)
+);
+
+-- 원장(ledger) 저장 방식. 잔액 = member.money(스냅샷) + sum(transfer_ledger.amount)
+drop table transfer_ledger if exists cascade;
+
+create table transfer_ledger(
+    ledger_id bigint auto_increment,
+    member_id varchar(10) not null,
+    amount integer not null,
+    primary key (ledger_id)
+);
+
+create index idx_transfer_ledger_member on transfer_ledger(member_id);
+
+-- 저널 기반 이체 접수기가 DB에 반영한 저널 위치. 이체와 같은 트랜잭션으로 갱신한다.
+drop table transfer_journal if exists cascade;
+
+create table transfer_journal(
+    journal_name varchar(100),
+    applied_offset bigint not null,
+    primary key (journal_name)
+);
+
+-- 트랜잭셔널 아웃박스. 회원 변경과 같은 트랜잭션으로 쌓고 OutboxRelay가 outbox_id 순서로 꺼내서 보낸 뒤 지운다.
+drop table member_outbox if exists cascade;
+
+create table member_outbox(
+    outbox_id bigint auto_increment,
+    member_id varchar(10) not null,
+    event_type varchar(10) not null,
+    money integer not null,
+    version bigint not null,
+    primary key (outbox_id)
+);
+
+-- 샤드 간 이체 사가 로그 (코디네이터 DB). STARTED -> DEBITED -> COMPLETED, 실패하면 FAILED 또는 COMPENSATING -> COMPENSATED
+-- 환불까지 거절되면 MANUAL (사람이 처리)
+drop table transfer_saga if exists cascade;
+
+create table transfer_saga(
+    saga_id varchar(36),
+    from_id varchar(10) not null,
+    to_id varchar(10) not null,
+    money integer not null,
+    status varchar(20) not null,
+    primary key (saga_id)
+);
+
+create index idx_transfer_saga_status on transfer_saga(status);
+
+-- 사가 단계 멱등성 기록 (각 샤드 DB). 금액 변경과 같은 로컬 트랜잭션으로 insert 해서 같은 단계가 두번 반영되지 않게 한다.
+drop table saga_step if exists cascade;
+
+create table saga_step(
+    saga_id varchar(36),
+    step varchar(10),
+    primary key (saga_id, step)
+);
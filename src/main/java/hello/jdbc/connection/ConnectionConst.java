@@ -4,4 +4,8 @@ public abstract class ConnectionConst {
     public static final String URL = "jdbc:h2:tcp://localhost/~/test";
     public static final String USERNAME = "test";
     public static final String PASSWORD = "1234";
+
+    // 커넥션 풀 설정 : -Dhello.jdbc.pool.size=20 처럼 시스템 프로퍼티로 덮어쓸 수 있다.
+    public static final int POOL_SIZE = 10;
+    public static final long POOL_TIMEOUT_MILLIS = 30_000;
 }
@@ -0,0 +1,70 @@
+package hello.jdbc.connection;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.function.Consumer;
+
+/*
+*   커넥션 풀이 사용자에게 넘겨주는 논리 커넥션(Proxy)
+*   close()를 호출하면 물리 커넥션을 닫지 않고 onClose 콜백(풀에 반납)을 호출한다.
+*   한번 닫힌 논리 커넥션은 다시 사용할 수 없다. (이미 다른 스레드가 같은 물리 커넥션을 빌려갔을 수 있다.)
+* */
+class ConnectionProxy implements InvocationHandler {
+    private final Connection target;
+    private final Consumer<Connection> onClose;
+    private volatile boolean closed;
+
+    private ConnectionProxy(Connection target, Consumer<Connection> onClose) {
+        this.target = target;
+        this.onClose = onClose;
+    }
+
+    static Connection wrap(Connection target, Consumer<Connection> onClose) {
+        return (Connection) Proxy.newProxyInstance(
+                ConnectionProxy.class.getClassLoader(),
+                new Class[]{Connection.class},
+                new ConnectionProxy(target, onClose));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "close":
+                if (!closed) {
+                    closed = true;
+                    onClose.accept(target);
+                }
+                return null;
+            case "isClosed":
+                return closed || target.isClosed();
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "Pooled[" + target + "]";
+            case "unwrap":
+                if (((Class<?>) args[0]).isInstance(target)) {
+                    return target;
+                }
+                break;
+            case "isWrapperFor":
+                if (((Class<?>) args[0]).isInstance(target)) {
+                    return true;
+                }
+                break;
+        }
+        if (closed) {
+            throw new SQLException("connection is closed");
+        }
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+}
@@ -24,4 +24,25 @@ public class DBConnectionUtil {
         }
 
     }
+
+    /*
+    *   풀링 모드 : 미리 만들어둔 커넥션을 빌려준다.
+    *   반환된 커넥션의 close()를 호출하면 물리 커넥션을 닫지 않고 풀에 반납한다.
+    * */
+    public static Connection getPooledConnection(){
+        try{
+            Connection connection = PoolHolder.POOL.borrow();
+            log.debug("get pooled connection={}", connection);
+            return connection;
+        }catch(SQLException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // 풀링 모드를 처음 사용할 때 풀을 만든다. (클래스 로딩이 지연 초기화와 동기화를 대신 해준다.)
+    private static class PoolHolder {
+        private static final SimpleConnectionPool POOL = new SimpleConnectionPool(URL, USERNAME, PASSWORD,
+                Integer.getInteger("hello.jdbc.pool.size", POOL_SIZE),
+                Long.getLong("hello.jdbc.pool.timeout", POOL_TIMEOUT_MILLIS));
+    }
 }
@@ -0,0 +1,114 @@
+package hello.jdbc.connection;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/*
+*   DBConnectionUtil용 단순 커넥션 풀
+*   - 생성 시점에 maxSize개의 커넥션을 미리 만들어 둔다. (pre-warm)
+*   - borrow() : 놀고 있는 커넥션을 빌려준다. 없으면 timeoutMillis만큼 기다린다.
+*   - 빌려준 커넥션의 close()를 호출하면 물리 커넥션을 닫지 않고 풀에 반납한다.
+*
+*   DriverManager.getConnection()은 호출할 때마다 TCP 연결과 H2 세션을 새로 만든다.
+*   풀을 사용하면 이 비용을 애플리케이션 시작 시점에 한번만 지불하면 된다.
+* */
+@Slf4j
+public class SimpleConnectionPool {
+    private final String url;
+    private final String username;
+    private final String password;
+    private final long timeoutMillis;
+    private final BlockingQueue<Connection> idle;
+    private volatile boolean closed;
+
+    public SimpleConnectionPool(String url, String username, String password, int maxSize, long timeoutMillis) {
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.timeoutMillis = timeoutMillis;
+        this.idle = new ArrayBlockingQueue<>(maxSize);
+        for (int i = 0; i < maxSize; i++) {
+            idle.add(newConnection());
+        }
+        log.info("connection pool started url={}, size={}", url, maxSize);
+    }
+
+    public Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("connection pool is closed");
+        }
+        Connection con;
+        try {
+            con = idle.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while waiting for connection", e);
+        }
+        if (con == null) {
+            throw new SQLException("connection is not available, timeout=" + timeoutMillis + "ms");
+        }
+        if (con.isClosed()) {
+            // 서버가 세션을 끊은 경우 새 물리 커넥션으로 교체한다.
+            try {
+                con = DriverManager.getConnection(url, username, password);
+            } catch (SQLException e) {
+                idle.offer(con); // 자리를 잃지 않도록 닫힌 커넥션을 다시 넣어둔다.
+                throw e;
+            }
+        }
+        return ConnectionProxy.wrap(con, this::giveBack);
+    }
+
+    public int idleCount() {
+        return idle.size();
+    }
+
+    public void close() {
+        closed = true;
+        Connection con;
+        while ((con = idle.poll()) != null) {
+            closeQuietly(con);
+        }
+    }
+
+    private void giveBack(Connection con) {
+        if (closed) {
+            closeQuietly(con);
+            return;
+        }
+        try {
+            // 트랜잭션을 정리하지 않고 반납한 경우 다음 사용자에게 넘어가지 않도록 롤백한다.
+            if (!con.getAutoCommit()) {
+                con.rollback();
+                con.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            // 닫아서 돌려놓으면 다음 borrow()에서 새 물리 커넥션으로 교체된다.
+            log.info("discard broken connection", e);
+            closeQuietly(con);
+        }
+        idle.offer(con);
+    }
+
+    private Connection newConnection() {
+        try {
+            return DriverManager.getConnection(url, username, password);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void closeQuietly(Connection con) {
+        try {
+            con.close();
+        } catch (SQLException e) {
+            log.info("error", e);
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package hello.jdbc.connection;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+*   PreparedStatement 캐시
+*   커넥션 풀(Hikari, ThreadAffinePoolDataSource 등)을 감싸서 물리 커넥션마다 SQL 문자열을 키로 하는
+*   LRU 캐시를 둔다. 리포지토리가 JdbcUtils.closeStatement()로 닫으면 실제로 닫지 않고 캐시에 돌려놓는다.
+*   같은 SQL을 다시 prepareStatement() 하면 파싱/실행계획 없이 캐시된 statement를 꺼내준다.
+*
+*   트랜잭션 매니저도 이 DataSource를 사용해야 DataSourceUtils로 동기화된 커넥션에도 캐시가 적용된다.
+*   new DataSourceTransactionManager(statementCachingDataSource)
+*
+*   캐시된 statement는 풀의 프록시를 거치지 않고 물리 커넥션에서 만든다. (프록시는 논리 close 때 statement를 닫는다.)
+*   그래서 풀이 프록시에서 하던 일 중 두 가지를 여기서 대신한다.
+*   - statement.getConnection()은 물리 커넥션이 아니라 빌려준 논리 커넥션을 돌려준다. (물리 커넥션이 밖으로 새지 않는다.)
+*   - 캐시된 statement로 실행하면 논리 커넥션을 dirty로 표시하고, 커밋/롤백 없이 autoCommit=false로 닫으면 롤백한다.
+*     (Hikari는 자기 statement로 실행했을 때만 롤백하고, 반납할 때 autoCommit을 되돌리면서 남은 작업이 커밋될 수 있다.)
+* */
+@Slf4j
+public class StatementCachingDataSource extends DelegatingDataSource {
+    public static final int DEFAULT_CACHE_SIZE = 32;
+
+    private final int cacheSize;
+    // 물리 커넥션 -> statement 캐시
+    private final Map<Connection, StatementCache> caches = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public StatementCachingDataSource(DataSource targetDataSource) {
+        this(targetDataSource, DEFAULT_CACHE_SIZE);
+    }
+
+    public StatementCachingDataSource(DataSource targetDataSource, int cacheSize) {
+        super(targetDataSource);
+        this.cacheSize = cacheSize;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return wrap(obtainTargetDataSource().getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return wrap(obtainTargetDataSource().getConnection(username, password));
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    private Connection wrap(Connection con) throws SQLException {
+        // Hikari 프록시는 논리 커넥션을 닫을 때 열려있는 statement를 모두 닫는다.
+        // 캐시된 statement가 살아남도록 statement는 물리 커넥션에서 직접 만든다.
+        Connection physical = con.isWrapperFor(Connection.class) ? con.unwrap(Connection.class) : con;
+        StatementCache cache = caches.get(physical);
+        if (cache == null) {
+            // 처음 보는 물리 커넥션이면 풀이 버린(닫힌) 커넥션의 캐시를 정리한다.
+            purgeClosed();
+            cache = caches.computeIfAbsent(physical, key -> new StatementCache(key, cacheSize));
+        }
+        CachingConnectionHandler handler = new CachingConnectionHandler(con, cache);
+        Connection proxy = (Connection) Proxy.newProxyInstance(
+                StatementCachingDataSource.class.getClassLoader(),
+                new Class[]{Connection.class},
+                handler);
+        handler.proxy = proxy;
+        return proxy;
+    }
+
+    private void purgeClosed() {
+        for (Iterator<Map.Entry<Connection, StatementCache>> it = caches.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Connection, StatementCache> entry = it.next();
+            try {
+                if (entry.getKey().isClosed()) {
+                    entry.getValue().clear();
+                    it.remove();
+                }
+            } catch (SQLException e) {
+                it.remove();
+            }
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    private class CachingConnectionHandler implements InvocationHandler {
+        private final Connection target;
+        private final StatementCache cache;
+        private Connection proxy;
+        // 캐시된 statement로 실행한 뒤 아직 커밋/롤백하지 않았다.
+        private volatile boolean dirty;
+
+        private CachingConnectionHandler(Connection target, StatementCache cache) {
+            this.target = target;
+            this.cache = cache;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "prepareStatement":
+                    if (args.length == 1) {
+                        return cache.checkout((String) args[0], this);
+                    }
+                    break;
+                case "commit":
+                case "rollback":
+                    Object result = StatementCachingDataSource.invoke(target, method, args);
+                    if (args == null) {
+                        dirty = false;
+                    }
+                    return result;
+                case "close":
+                    rollbackIfDirty();
+                    break;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "StatementCaching[" + target + "]";
+            }
+            return StatementCachingDataSource.invoke(target, method, args);
+        }
+
+        private void rollbackIfDirty() {
+            if (!dirty) {
+                return;
+            }
+            dirty = false;
+            try {
+                if (!target.isClosed() && !target.getAutoCommit()) {
+                    target.rollback();
+                }
+            } catch (SQLException e) {
+                log.info("error", e);
+            }
+        }
+    }
+
+    /*
+    *   물리 커넥션 하나에 대한 LRU 캐시
+    *   사용중인 statement는 캐시에서 빠져있다가 논리 close() 시점에 다시 들어온다.
+    *   (같은 SQL을 동시에 두번 열어도 서로 다른 statement를 쓰게 된다.)
+    * */
+    private class StatementCache {
+        private final Connection physical;
+        private final LinkedHashMap<String, PreparedStatement> statements;
+
+        private StatementCache(Connection physical, int maxSize) {
+            this.physical = physical;
+            this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() > maxSize) {
+                        closeQuietly(eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        private PreparedStatement checkout(String sql, CachingConnectionHandler connection) throws SQLException {
+            PreparedStatement pstmt;
+            synchronized (this) {
+                pstmt = statements.remove(sql);
+            }
+            if (pstmt != null && !pstmt.isClosed()) {
+                hits.increment();
+            } else {
+                misses.increment();
+                pstmt = physical.prepareStatement(sql);
+            }
+            return (PreparedStatement) Proxy.newProxyInstance(
+                    StatementCachingDataSource.class.getClassLoader(),
+                    new Class[]{PreparedStatement.class},
+                    new CachedStatementHandler(sql, pstmt, this, connection));
+        }
+
+        private void giveBack(String sql, PreparedStatement pstmt) {
+            try {
+                if (pstmt.isClosed()) {
+                    return;
+                }
+                pstmt.clearParameters();
+                pstmt.clearBatch();
+            } catch (SQLException e) {
+                closeQuietly(pstmt);
+                return;
+            }
+            PreparedStatement old;
+            synchronized (this) {
+                old = statements.put(sql, pstmt);
+            }
+            if (old != null && old != pstmt) {
+                closeQuietly(old);
+            }
+        }
+
+        // 물리 커넥션이 닫히면 캐시된 statement도 모두 무효가 된다.
+        private synchronized void clear() {
+            for (Iterator<PreparedStatement> it = statements.values().iterator(); it.hasNext(); ) {
+                closeQuietly(it.next());
+                it.remove();
+            }
+        }
+    }
+
+    private static class CachedStatementHandler implements InvocationHandler {
+        private final String sql;
+        private final PreparedStatement target;
+        private final StatementCache cache;
+        private final CachingConnectionHandler connection;
+        private boolean closed;
+
+        private CachedStatementHandler(String sql, PreparedStatement target, StatementCache cache,
+                                       CachingConnectionHandler connection) {
+            this.sql = sql;
+            this.target = target;
+            this.cache = cache;
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        cache.giveBack(sql, target);
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || target.isClosed();
+                case "getConnection":
+                    return connection.proxy;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Cached[" + target + "]";
+            }
+            if (closed) {
+                throw new SQLException("statement is closed");
+            }
+            if (method.getName().startsWith("execute")) {
+                connection.dirty = true;
+            }
+            try {
+                return StatementCachingDataSource.invoke(target, method, args);
+            } catch (SQLException e) {
+                if (target.isClosed()) {
+                    cache.clear();
+                }
+                throw e;
+            }
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement pstmt) {
+        try {
+            pstmt.close();
+        } catch (SQLException e) {
+            log.info("error", e);
+        }
+    }
+}
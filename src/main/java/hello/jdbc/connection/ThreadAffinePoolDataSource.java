@@ -0,0 +1,265 @@
+package hello.jdbc.connection;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+*   락을 잡지 않는 커넥션 풀 (DataSource 구현체)
+*   MemberRepositoryV1 ~ V5, DataSourceTransactionManager에 HikariDataSource 대신 그대로 넣어서 쓸 수 있다.
+*
+*   커넥션을 빌려주는 순서
+*   1. 현재 스레드가 마지막으로 사용했던 커넥션 (ThreadLocal) - 대부분 여기서 끝난다.
+*   2. 공유 idle 덱(ConcurrentLinkedDeque)에서 꺼낸 커넥션
+*   3. 풀이 maxSize보다 작으면 새 커넥션 생성
+*   4. 그래도 없으면 다른 스레드가 반납할 때까지 기다린다. (timeoutMillis)
+*
+*   같은 커넥션이 ThreadLocal과 idle 덱 양쪽에서 보일 수 있기 때문에 실제 소유권은
+*   PoolEntry.state 의 CAS(IDLE -> IN_USE)에 성공한 스레드가 가져간다.
+* */
+@Slf4j
+public class ThreadAffinePoolDataSource extends AbstractDataSource {
+    private static final int IDLE = 0;
+    private static final int IN_USE = 1;
+    private static final int REMOVED = -1;
+    private static final long WAIT_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private final int maxSize;
+    private final long timeoutMillis;
+
+    private final CopyOnWriteArrayList<PoolEntry> entries = new CopyOnWriteArrayList<>();
+    private final ConcurrentLinkedDeque<PoolEntry> idle = new ConcurrentLinkedDeque<>();
+    private final ThreadLocal<PoolEntry> lastUsed = new ThreadLocal<>();
+    private final SynchronousQueue<PoolEntry> handoff = new SynchronousQueue<>();
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger waiters = new AtomicInteger();
+    private volatile boolean closed;
+
+    // 어느 단계에서 커넥션을 얻었는지 측정용
+    private final LongAdder threadLocalHits = new LongAdder();
+    private final LongAdder sharedHits = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder waited = new LongAdder();
+
+    public ThreadAffinePoolDataSource(String url, String username, String password) {
+        this(url, username, password, ConnectionConst.POOL_SIZE, ConnectionConst.POOL_TIMEOUT_MILLIS);
+    }
+
+    public ThreadAffinePoolDataSource(String url, String username, String password, int maxSize, long timeoutMillis) {
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("data source is closed");
+        }
+        // 1. 스레드 전용 슬롯
+        PoolEntry entry = lastUsed.get();
+        if (entry != null && entry.claim()) {
+            threadLocalHits.increment();
+            return wrap(entry);
+        }
+        // 2. 공유 idle 덱
+        entry = pollIdle();
+        if (entry != null) {
+            sharedHits.increment();
+            return wrap(entry);
+        }
+        // 3. 새 커넥션
+        entry = tryCreate();
+        if (entry != null) {
+            created.increment();
+            return wrap(entry);
+        }
+        // 4. 반납 대기
+        waited.increment();
+        return wrap(await());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("풀은 생성 시점의 계정만 사용한다.");
+    }
+
+    public void close() {
+        closed = true;
+        for (PoolEntry entry : entries) {
+            entry.state.set(REMOVED);
+            closeQuietly(entry.con);
+        }
+        entries.clear();
+        idle.clear();
+    }
+
+    public int getTotalConnections() {
+        return total.get();
+    }
+
+    public long getThreadLocalHits() {
+        return threadLocalHits.sum();
+    }
+
+    public long getSharedHits() {
+        return sharedHits.sum();
+    }
+
+    public long getCreated() {
+        return created.sum();
+    }
+
+    public long getWaited() {
+        return waited.sum();
+    }
+
+    private PoolEntry pollIdle() {
+        PoolEntry entry;
+        while ((entry = idle.pollFirst()) != null) {
+            entry.queued.set(false);
+            if (entry.claim()) {
+                return entry;
+            }
+            // 다른 스레드가 ThreadLocal 경로로 먼저 가져갔다. 반납될 때 다시 덱에 들어온다.
+        }
+        return null;
+    }
+
+    private PoolEntry tryCreate() throws SQLException {
+        for (;;) {
+            int count = total.get();
+            if (count >= maxSize) {
+                return null;
+            }
+            if (total.compareAndSet(count, count + 1)) {
+                break;
+            }
+        }
+        try {
+            PoolEntry entry = new PoolEntry(DriverManager.getConnection(url, username, password));
+            entries.add(entry);
+            log.info("new pooled connection={}, total={}", entry.con, total.get());
+            return entry;
+        } catch (SQLException e) {
+            total.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private PoolEntry await() throws SQLException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        waiters.incrementAndGet();
+        try {
+            for (;;) {
+                PoolEntry entry = pollIdle();
+                if (entry != null) {
+                    return entry;
+                }
+                // 기다리는 동안 깨진 커넥션이 제거되어 자리가 생겼을 수도 있다.
+                entry = tryCreate();
+                if (entry != null) {
+                    return entry;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new SQLTimeoutException("connection is not available, timeout=" + timeoutMillis + "ms");
+                }
+                entry = handoff.poll(Math.min(remaining, WAIT_SLICE_NANOS), TimeUnit.NANOSECONDS);
+                if (entry != null && entry.claim()) {
+                    return entry;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while waiting for connection", e);
+        } finally {
+            waiters.decrementAndGet();
+        }
+    }
+
+    private Connection wrap(PoolEntry entry) {
+        lastUsed.set(entry);
+        return ConnectionProxy.wrap(entry.con, con -> giveBack(entry));
+    }
+
+    private void giveBack(PoolEntry entry) {
+        if (closed || !reset(entry.con)) {
+            remove(entry);
+            return;
+        }
+        entry.state.set(IDLE);
+        // 기다리는 스레드가 있으면 직접 넘겨준다. 받을 스레드가 없으면 offer()는 바로 false를 돌려준다.
+        if (waiters.get() > 0 && handoff.offer(entry)) {
+            return;
+        }
+        // 가장 최근에 쓴 커넥션이 먼저 나가도록 앞쪽에 넣는다.
+        if (entry.queued.compareAndSet(false, true)) {
+            idle.offerFirst(entry);
+        }
+    }
+
+    private boolean reset(Connection con) {
+        try {
+            if (con.isClosed()) {
+                return false;
+            }
+            if (!con.getAutoCommit()) {
+                con.rollback();
+                con.setAutoCommit(true);
+            }
+            return true;
+        } catch (SQLException e) {
+            log.info("discard broken connection", e);
+            return false;
+        }
+    }
+
+    private void remove(PoolEntry entry) {
+        entry.state.set(REMOVED);
+        if (entries.remove(entry)) {
+            total.decrementAndGet();
+        }
+        closeQuietly(entry.con);
+    }
+
+    private void closeQuietly(Connection con) {
+        try {
+            con.close();
+        } catch (SQLException e) {
+            log.info("error", e);
+        }
+    }
+
+    private static final class PoolEntry {
+        private final Connection con;
+        private final AtomicInteger state = new AtomicInteger(IN_USE);
+        // idle 덱에 이미 들어가 있는지 (중복으로 쌓이지 않게)
+        private final AtomicBoolean queued = new AtomicBoolean();
+
+        private PoolEntry(Connection con) {
+            this.con = con;
+        }
+
+        private boolean claim() {
+            return state.compareAndSet(IDLE, IN_USE);
+        }
+    }
+}
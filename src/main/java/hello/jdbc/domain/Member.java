@@ -1,11 +1,16 @@
 package hello.jdbc.domain;
 
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 
 @Data
 public class Member {
     private String memberId;
     private int money;
+    // 낙관적 락 버전. 금액이 바뀔 때마다 1씩 증가한다. (MemberRepositoryV4_1, V4_2, V5)
+    // 동등성은 기존과 같이 memberId, money로만 비교한다.
+    @EqualsAndHashCode.Exclude
+    private long version;
 
     public Member(){
     }
@@ -0,0 +1,30 @@
+package hello.jdbc.domain;
+
+import lombok.Data;
+
+/*
+*   회원 변경 이벤트 (member_outbox 테이블의 한 행)
+*   변경 직후 회원 상태(money, version)를 담는다. 같은 이벤트를 두번 받아도 version으로 걸러낼 수 있다.
+*   DELETE는 삭제 직전 금액과 마지막 version + 1을 담는다.
+* */
+@Data
+public class MemberChangeEvent {
+    public enum Type { SAVE, UPDATE, DELETE }
+
+    private long outboxId;
+    private String memberId;
+    private Type type;
+    private int money;
+    private long version;
+
+    public MemberChangeEvent(){
+    }
+
+    public MemberChangeEvent(long outboxId, String memberId, Type type, int money, long version) {
+        this.outboxId = outboxId;
+        this.memberId = memberId;
+        this.type = type;
+        this.money = money;
+        this.version = version;
+    }
+}
@@ -0,0 +1,68 @@
+package hello.jdbc.repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/*
+*   where member_id in (?, ?, ...) 조회를 위한 id 청크 나누기
+*
+*   id 개수마다 ? 개수가 다른 SQL을 만들면 SQL 문자열이 매번 달라져서
+*   PreparedStatement 캐시와 DB의 실행계획 캐시를 재사용할 수 없다.
+*   그래서 ? 개수를 SHAPES 중 하나로 맞추고 남는 자리는 청크의 마지막 id로 채운다.
+*   (IN 목록에 같은 id가 여러번 있어도 결과는 한 건이다.)
+* */
+final class InClauseChunks {
+    static final int[] SHAPES = {1, 4, 16, 64, 256};
+    private static final String[] PLACEHOLDERS = new String[SHAPES.length];
+
+    static {
+        for (int i = 0; i < SHAPES.length; i++) {
+            StringBuilder sb = new StringBuilder("?");
+            for (int j = 1; j < SHAPES[i]; j++) {
+                sb.append(", ?");
+            }
+            PLACEHOLDERS[i] = sb.toString();
+        }
+    }
+
+    private InClauseChunks() {
+    }
+
+    // ex) "select * from member where member_id in (" + placeholders(4) + ")"
+    static String placeholders(int shape) {
+        for (int i = 0; i < SHAPES.length; i++) {
+            if (SHAPES[i] == shape) {
+                return PLACEHOLDERS[i];
+            }
+        }
+        throw new IllegalArgumentException("unsupported shape=" + shape);
+    }
+
+    // 중복을 제거하고 SHAPES 크기에 맞춰 채운 청크 목록
+    static List<List<String>> split(Collection<String> ids) {
+        List<String> distinct = new ArrayList<>(new LinkedHashSet<>(ids));
+        int max = SHAPES[SHAPES.length - 1];
+        List<List<String>> chunks = new ArrayList<>();
+        for (int from = 0; from < distinct.size(); from += max) {
+            List<String> chunk = new ArrayList<>(distinct.subList(from, Math.min(from + max, distinct.size())));
+            int shape = shapeFor(chunk.size());
+            String last = chunk.get(chunk.size() - 1);
+            while (chunk.size() < shape) {
+                chunk.add(last);
+            }
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    private static int shapeFor(int count) {
+        for (int shape : SHAPES) {
+            if (count <= shape) {
+                return shape;
+            }
+        }
+        return SHAPES[SHAPES.length - 1];
+    }
+}
@@ -0,0 +1,119 @@
+package hello.jdbc.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+*   transfer_ledger 압축기
+*   오래된 원장 행을 batchSize개씩 읽어서 회원별로 합친 뒤 member.money(스냅샷)에 더하고 읽은 원장 행을 지운다.
+*   스냅샷 갱신과 원장 삭제는 트랜잭션 하나로 커밋하므로 잔액 조회는 압축 전, 후 중 한쪽만 본다.
+*
+*   - member 행은 member_id 순서로 갱신한다. (출금과 같은 순서로 잠가서 교착상태를 피한다.)
+*   - 읽은 ledger_id만 지운다. 압축 중에 새로 들어온 원장 행은 다음 번에 합쳐진다.
+*   - start()로 interval마다 백그라운드에서 실행하고, 밀린 원장이 batchSize보다 많으면 바로 이어서 실행한다.
+* */
+@Slf4j
+public class LedgerCompactor implements AutoCloseable {
+    public static final int DEFAULT_BATCH_SIZE = 10_000;
+    public static final Duration DEFAULT_INTERVAL = Duration.ofSeconds(1);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate txTemplate;
+    private final int batchSize;
+    private final Duration interval;
+    private final ScheduledExecutorService scheduler;
+    private final LongAdder compacted = new LongAdder();
+
+    public LedgerCompactor(DataSource dataSource) {
+        this(dataSource, DEFAULT_BATCH_SIZE, DEFAULT_INTERVAL);
+    }
+
+    public LedgerCompactor(DataSource dataSource, int batchSize, Duration interval) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.txTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        this.batchSize = batchSize;
+        this.interval = interval;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ledger-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        long millis = interval.toMillis();
+        scheduler.scheduleWithFixedDelay(this::compactAll, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    // 지금까지 스냅샷에 합친 원장 행 수
+    public long getCompactedCount() {
+        return compacted.sum();
+    }
+
+    /*
+    *   원장 행을 최대 batchSize개 합친다. 반환값 : 합친 원장 행 수
+    * */
+    public int compactOnce() {
+        Integer count = txTemplate.execute(status -> {
+            List<Long> ledgerIds = new ArrayList<>();
+            Map<String, Long> deltaByMemberId = new TreeMap<>();
+            jdbcTemplate.query("select ledger_id, member_id, amount from transfer_ledger order by ledger_id limit ?",
+                    rs -> {
+                        ledgerIds.add(rs.getLong(1));
+                        deltaByMemberId.merge(rs.getString(2), (long) rs.getInt(3), Long::sum);
+                    }, batchSize);
+            if (ledgerIds.isEmpty()) {
+                return 0;
+            }
+
+            List<Object[]> updates = new ArrayList<>(deltaByMemberId.size());
+            for (Map.Entry<String, Long> entry : deltaByMemberId.entrySet()) {
+                updates.add(new Object[]{Math.toIntExact(entry.getValue()), entry.getKey()});
+            }
+            jdbcTemplate.batchUpdate("update member set money = money + ?, version = version + 1 where member_id = ?", updates);
+
+            List<Object[]> deletes = new ArrayList<>(ledgerIds.size());
+            for (Long ledgerId : ledgerIds) {
+                deletes.add(new Object[]{ledgerId});
+            }
+            jdbcTemplate.batchUpdate("delete from transfer_ledger where ledger_id = ?", deletes);
+            return ledgerIds.size();
+        });
+        compacted.add(count);
+        return count;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(interval.toMillis() + 10_000, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void compactAll() {
+        try {
+            while (compactOnce() == batchSize) {
+                // 밀린 원장이 남아 있으면 바로 이어서 합친다.
+            }
+        } catch (RuntimeException e) {
+            // 다음 주기에 다시 시도한다. 예외로 끝나면 스케줄이 멈추기 때문에 잡아서 로그만 남긴다.
+            log.error("ledger compaction failed", e);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package hello.jdbc.repository;
+
+import hello.jdbc.domain.Member;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/*
+*   원장(append-only ledger) 저장 방식
+*   증감(addMoney, transferMoney ...)을 member.money에 덮어쓰지 않고 transfer_ledger에 insert만 한다.
+*   잔액 = member.money(스냅샷) + sum(transfer_ledger.amount) 이고 LedgerCompactor가 주기적으로 원장을 스냅샷에 합친다.
+*
+*   - 입금 : insert 한번. member 행을 잠그지 않으므로 같은 회원에게 동시에 입금해도 기다리지 않는다.
+*   - 출금 : 잔액 검사가 필요하므로 member 행을 select for update로 잠근 뒤 잔액이 충분할 때만 insert 한다.
+*     (같은 회원의 출금끼리, 출금과 압축(compaction)끼리만 줄을 선다.)
+*   - 조회 : 스냅샷과 원장 합계를 SQL 한번으로 읽는다. 압축이 커밋되는 순간과 겹쳐도 한쪽만 보게 된다.
+*   - 여러 건 증감은 batchUpdate로 한번에 insert 한다.
+*
+*   여러 SQL로 나뉘는 작업은 TransactionTemplate(REQUIRED)으로 묶는다. (호출하는 쪽 트랜잭션이 있으면 참여)
+*   save, saveAll은 delegate(MemberRepositoryV5 등)에 맡긴다.
+*
+*   주의
+*   - 원장 insert는 version을 올리지 않는다.
+*   - update, updateIfVersion, updateAll(절대 금액)은 지원하지 않는다. (InvalidDataAccessApiUsageException)
+*     입금은 member 행을 잠그지 않으므로 findByIdForUpdate로 읽은 뒤 덮어쓰면 그 사이에 커밋된 입금이 사라진다.
+*     입금이 version도 올리지 않으므로 낙관적 락으로도 막을 수 없다. 증감 API(addMoney, transferMoney ...)를 쓴다.
+* */
+public class LedgerMemberRepository implements MemberRepository {
+    // 스냅샷 + 원장 합계. 뒤에 where, order by를 붙여서 쓴다.
+    private static final String SELECT_BALANCE = "select m.member_id, m.version," +
+            " m.money + coalesce((select sum(l.amount) from transfer_ledger l where l.member_id = m.member_id), 0) as money" +
+            " from member m";
+    private static final String APPEND = "insert into transfer_ledger(member_id, amount)" +
+            " select member_id, ? from member where member_id = ?";
+    private static final String APPEND_IF_SUFFICIENT = "insert into transfer_ledger(member_id, amount)" +
+            " select member_id, ? from member m where member_id = ?" +
+            " and m.money + coalesce((select sum(l.amount) from transfer_ledger l where l.member_id = m.member_id), 0) + ? >= 0";
+
+    private final MemberRepository delegate;
+    private final JdbcTemplate jdbcTemplate;
+    private final JdbcTemplate scanTemplate;
+    private final TransactionTemplate txTemplate;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    public LedgerMemberRepository(MemberRepository delegate, DataSource dataSource) {
+        this.delegate = delegate;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.scanTemplate = new JdbcTemplate(dataSource);
+        this.scanTemplate.setFetchSize(DEFAULT_FETCH_SIZE);
+        this.txTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public Member save(Member member) {
+        return delegate.save(member);
+    }
+
+    @Override
+    public void saveAll(Collection<Member> members) {
+        delegate.saveAll(members);
+    }
+
+    @Override
+    public Member findById(String memberId) {
+        return jdbcTemplate.queryForObject(SELECT_BALANCE + " where m.member_id = ?", memberRowMapper(), memberId);
+    }
+
+    @Override
+    public Member findByIdForUpdate(String memberId) {
+        return inTransaction(() -> {
+            delegate.findByIdForUpdate(memberId);
+            return findById(memberId);
+        });
+    }
+
+    @Override
+    public Map<String, Member> findAllByIds(Collection<String> memberIds) {
+        Map<String, Member> result = new HashMap<>();
+        for (List<String> chunk : InClauseChunks.split(memberIds)) {
+            String sql = SELECT_BALANCE + " where m.member_id in (" + InClauseChunks.placeholders(chunk.size()) + ")";
+            for (Member member : jdbcTemplate.query(sql, memberRowMapper(), chunk.toArray())) {
+                result.put(member.getMemberId(), member);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void update(String memberId, int money) {
+        throw absoluteWriteNotSupported();
+    }
+
+    @Override
+    public int updateIfVersion(String memberId, int money, long expectedVersion) {
+        throw absoluteWriteNotSupported();
+    }
+
+    @Override
+    public int[] updateAll(Map<String, Integer> moneyByMemberId) {
+        throw absoluteWriteNotSupported();
+    }
+
+    @Override
+    public void delete(String memberId) {
+        inTransaction(() -> {
+            jdbcTemplate.update("delete from transfer_ledger where member_id = ?", memberId);
+            delegate.delete(memberId);
+            return null;
+        });
+    }
+
+    @Override
+    public int addMoney(String memberId, int delta) {
+        return jdbcTemplate.update(APPEND, delta, memberId);
+    }
+
+    @Override
+    public int addMoneyIfSufficient(String memberId, int delta) {
+        if (delta >= 0) {
+            return addMoney(memberId, delta);
+        }
+        // 같은 회원의 출금끼리 동시에 잔액 검사를 통과하지 않도록 member 행을 잠근다.
+        return inTransaction(() -> {
+            if (lock(memberId)) {
+                return jdbcTemplate.update(APPEND_IF_SUFFICIENT, delta, memberId, delta);
+            }
+            return 0;
+        });
+    }
+
+    @Override
+    public int[] addMoneyAll(Map<String, Integer> deltaByMemberId) {
+        return inTransaction(() -> {
+            // 출금은 잠그고 한 건씩 검사, 입금은 모아서 배치 insert
+            int[] counts = new int[deltaByMemberId.size()];
+            List<Map.Entry<String, Integer>> credits = new ArrayList<>();
+            List<Integer> creditIndexes = new ArrayList<>();
+            int i = 0;
+            for (Map.Entry<String, Integer> entry : deltaByMemberId.entrySet()) {
+                if (entry.getValue() < 0) {
+                    counts[i] = addMoneyIfSufficient(entry.getKey(), entry.getValue());
+                } else {
+                    credits.add(entry);
+                    creditIndexes.add(i);
+                }
+                i++;
+            }
+            int[] creditCounts = flatten(jdbcTemplate.batchUpdate(APPEND, credits, batchSize, (ps, entry) -> {
+                ps.setInt(1, entry.getValue());
+                ps.setString(2, entry.getKey());
+            }), credits.size());
+            for (int c = 0; c < creditCounts.length; c++) {
+                counts[creditIndexes.get(c)] = creditCounts[c];
+            }
+            return counts;
+        });
+    }
+
+    @Override
+    public int transferMoney(String fromId, String toId, int money) {
+        // 다른 구현과 같이 잔액이 부족하면 입금도 하지 않고 0을 돌려준다.
+        return inTransaction(() -> {
+            if (addMoneyIfSufficient(fromId, -money) == 0) {
+                return 0;
+            }
+            return 1 + addMoney(toId, money);
+        });
+    }
+
+    @Override
+    public Stream<Member> streamAll() {
+        return scanTemplate.queryForStream(SELECT_BALANCE, memberRowMapper());
+    }
+
+    @Override
+    public void forEachMember(Consumer<Member> action) {
+        RowMapper<Member> rowMapper = memberRowMapper();
+        scanTemplate.query(SELECT_BALANCE, (RowCallbackHandler) rs -> action.accept(rowMapper.mapRow(rs, rs.getRow())));
+    }
+
+    @Override
+    public List<Member> findPageAfter(String lastMemberId, int limit) {
+        if (lastMemberId == null) {
+            return jdbcTemplate.query(SELECT_BALANCE + " order by m.member_id limit ?", memberRowMapper(), limit);
+        }
+        String sql = SELECT_BALANCE + " where m.member_id > ? order by m.member_id limit ?";
+        return jdbcTemplate.query(sql, memberRowMapper(), lastMemberId, limit);
+    }
+
+    @Override
+    public List<Member> findPageBefore(String lastMemberId, int limit) {
+        if (lastMemberId == null) {
+            return jdbcTemplate.query(SELECT_BALANCE + " order by m.member_id desc limit ?", memberRowMapper(), limit);
+        }
+        String sql = SELECT_BALANCE + " where m.member_id < ? order by m.member_id desc limit ?";
+        return jdbcTemplate.query(sql, memberRowMapper(), lastMemberId, limit);
+    }
+
+    private static InvalidDataAccessApiUsageException absoluteWriteNotSupported() {
+        return new InvalidDataAccessApiUsageException(
+                "원장 방식은 절대 금액 변경을 지원하지 않습니다. 동시에 커밋된 입금이 사라질 수 있습니다.");
+    }
+
+    // member 행 잠금. 없는 회원이면 false
+    private boolean lock(String memberId) {
+        List<String> locked = jdbcTemplate.queryForList(
+                "select member_id from member where member_id = ? for update", String.class, memberId);
+        return !locked.isEmpty();
+    }
+
+    private int[] flatten(int[][] counts, int size) {
+        int[] result = new int[size];
+        int offset = 0;
+        for (int[] chunk : counts) {
+            System.arraycopy(chunk, 0, result, offset, chunk.length);
+            offset += chunk.length;
+        }
+        return result;
+    }
+
+    private <T> T inTransaction(Supplier<T> action) {
+        return txTemplate.execute(status -> action.get());
+    }
+
+    private RowMapper<Member> memberRowMapper() {
+        return (rs, rowNum) -> {
+            Member member = new Member();
+            member.setMemberId(rs.getString("member_id"));
+            member.setMoney(rs.getInt("money"));
+            member.setVersion(rs.getLong("version"));
+            return member;
+        };
+    }
+}
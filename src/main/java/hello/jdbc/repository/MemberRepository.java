@@ -2,9 +2,70 @@ package hello.jdbc.repository;
 
 import hello.jdbc.domain.Member;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
 public interface MemberRepository {
+    // 배치 API의 기본 청크 크기 : 이 개수만큼 addBatch()를 모아서 한번에 executeBatch() 한다.
+    int DEFAULT_BATCH_SIZE = 1000;
+    // 전체 조회(streamAll, forEachMember)에서 DB에서 한번에 가져올 행 수
+    int DEFAULT_FETCH_SIZE = 500;
+
     Member save(Member member);
     Member findById(String memberId);
+    /*
+    *   select ... for update : 트랜잭션이 끝날 때까지 회원 행에 쓰기 락을 건다.
+    *   트랜잭션 안에서 호출해야 의미가 있다. 여러 회원을 잠글 때는 member_id 순서로 잠가야 교착상태가 생기지 않는다.
+    * */
+    Member findByIdForUpdate(String memberId);
     void update(String memberId, int money);
+    /*
+    *   낙관적 락 : 조회했을 때의 버전과 같을 때만 변경한다.
+    *   update member set money=?, version=version+1 where member_id=? and version=?
+    *   반환값 0 : 그 사이에 다른 트랜잭션이 변경했거나(버전 불일치) 없는 회원
+    *   (V4_1, V4_2, V5의 모든 변경 SQL은 version을 1씩 올린다.)
+    * */
+    int updateIfVersion(String memberId, int money, long expectedVersion);
     void delete(String memberId);
+    /*
+    *   update member set money = money + ?, version = version + 1 where member_id = ?
+    *   조회 없이 DB에서 바로 증감하기 때문에 동시에 실행되어도 갱신이 사라지지 않는다.
+    *   반환값 : 변경된 row 수 (0 이면 없는 회원)
+    * */
+    int addMoney(String memberId, int delta);
+    // 증감 후 잔액이 0 이상일 때만 반영한다. 반환값 0 : 없는 회원이거나 잔액 부족
+    int addMoneyIfSufficient(String memberId, int delta);
+    /*
+    *   출금과 입금을 SQL 한번으로 처리한다.
+    *   update member set money = case member_id when from then money - ? when to then money + ? end ...
+    *   출금 회원의 잔액이 부족하면 두 행 모두 변경되지 않고 0을 돌려준다.
+    *   (exists 조건은 문장 시작 시점의 잔액을 본다. 동시에 출금한 트랜잭션이 먼저 커밋하면 출금 행 조건만 실패해서 1이 될 수 있다.)
+    *   반환값 : 변경된 row 수. 2가 아니면 실패이므로 호출하는 쪽에서 트랜잭션을 롤백해야 한다.
+    * */
+    int transferMoney(String fromId, String toId, int money);
+
+    void saveAll(Collection<Member> members);
+    // 없는 id는 결과에서 빠진다. (findById와 달리 예외를 던지지 않는다.)
+    Map<String, Member> findAllByIds(Collection<String> memberIds);
+    // 전체 회원을 한 행씩 읽는다. 커넥션을 반납하려면 Stream을 반드시 close() 해야 한다. (try-with-resources)
+    Stream<Member> streamAll();
+    // streamAll()의 push 방식. 모든 행에 대해 action을 호출하고 자원을 정리한다.
+    void forEachMember(Consumer<Member> action);
+    /*
+    *   키셋 페이징 : member_id(PK) 인덱스에서 바로 다음 위치를 찾기 때문에 몇번째 페이지든 비용이 같다.
+    *   lastMemberId는 이전 페이지의 마지막 회원 id. 첫 페이지는 null을 넘긴다.
+    * */
+    List<Member> findPageAfter(String lastMemberId, int limit);   // member_id 오름차순
+    List<Member> findPageBefore(String lastMemberId, int limit);  // member_id 내림차순
+    // 반환값 : moneyByMemberId.entrySet() 순서대로 각 update의 결과 row 수 (0 이면 없는 회원)
+    int[] updateAll(Map<String, Integer> moneyByMemberId);
+    /*
+    *   회원별 증감을 배치 한번으로 반영한다. (addMoneyIfSufficient의 배치 버전)
+    *   update member set money = money + ? where member_id = ? and money + ? >= 0
+    *   반환값 : deltaByMemberId.entrySet() 순서대로 각 update의 결과 row 수 (0 이면 없는 회원이거나 잔액 부족)
+    * */
+    int[] addMoneyAll(Map<String, Integer> deltaByMemberId);
 }
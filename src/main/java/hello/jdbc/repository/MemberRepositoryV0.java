@@ -9,6 +9,17 @@ import java.util.NoSuchElementException;
 
 @Slf4j
 public class MemberRepositoryV0 {
+    // true 이면 DBConnectionUtil의 커넥션 풀에서 커넥션을 빌려온다. close()는 풀에 반납이 된다.
+    private final boolean pooled;
+
+    public MemberRepositoryV0(){
+        this(false);
+    }
+
+    public MemberRepositoryV0(boolean pooled){
+        this.pooled = pooled;
+    }
+
     public Member save(Member member) throws SQLException{
         String sql = "insert into member(member_id, money) values(?, ?)";
         Connection con = null;
@@ -56,7 +67,7 @@ public class MemberRepositoryV0 {
 
 //  회원수정 추가
     public void update(String memberId, int money) throws SQLException{
-        String sql = "update member set money=? where member_id=?";
+        String sql = "update member set money=?, version=version+1 where member_id=?";
         Connection con = null;
         PreparedStatement pstmt = null;
         try{
@@ -117,7 +128,7 @@ public class MemberRepositoryV0 {
         }
     }
     private Connection getConnection () {
-        return DBConnectionUtil.getConnection();
+        return pooled ? DBConnectionUtil.getPooledConnection() : DBConnectionUtil.getConnection();
     }
 }
 
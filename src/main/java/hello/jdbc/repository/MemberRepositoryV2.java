@@ -101,7 +101,7 @@ public class MemberRepositoryV2 {
 
     //  회원수정 추가
     public void update(String memberId, int money) throws SQLException{
-        String sql = "update member set money=? where member_id=?";
+        String sql = "update member set money=?, version=version+1 where member_id=?";
         Connection con = null;
         PreparedStatement pstmt = null;
         try{
@@ -120,7 +120,7 @@ public class MemberRepositoryV2 {
 
 //    2023 10 17 추가 내용
     public void update(Connection con, String memberId, int money) throws SQLException{
-        String sql = "update member set money=? where member_id=?";
+        String sql = "update member set money=?, version=version+1 where member_id=?";
         PreparedStatement pstmt = null;
         try{
             pstmt = con.prepareStatement(sql);
@@ -9,7 +9,14 @@ import org.springframework.jdbc.support.JdbcUtils;
 
 import javax.sql.DataSource;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 /*
 * 예외 누수 문제 해결
 * 체크 예외를 런타임 예외로 변경
@@ -19,10 +26,20 @@ import java.util.NoSuchElementException;
 @Slf4j
 public class MemberRepositoryV4_1 implements MemberRepository{
     private final DataSource dataSource;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int fetchSize = DEFAULT_FETCH_SIZE;
 
     public MemberRepositoryV4_1(DataSource dataSource){
         this.dataSource = dataSource;
     }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
     @Override
     public Member save(Member member) {
         String sql = "insert into member(member_id, money) values(?, ?)";
@@ -42,6 +59,37 @@ public class MemberRepositoryV4_1 implements MemberRepository{
         }
     }
 
+    /*
+    *   JDBC 배치 : batchSize 만큼 모아서 한번의 왕복으로 insert 한다.
+    *   DataSourceUtils로 커넥션을 얻기 때문에 서비스의 트랜잭션이 있으면 그 트랜잭션에 참여한다.
+    * */
+    @Override
+    public void saveAll(Collection<Member> members) {
+        String sql = "insert into member(member_id, money) values(?, ?)";
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        try {
+            con = getConnection();
+            pstmt = con.prepareStatement(sql);
+            int count = 0;
+            for (Member member : members) {
+                pstmt.setString(1, member.getMemberId());
+                pstmt.setInt(2, member.getMoney());
+                pstmt.addBatch();
+                if (++count % batchSize == 0) {
+                    pstmt.executeBatch();
+                }
+            }
+            if (count % batchSize != 0) {
+                pstmt.executeBatch();
+            }
+        } catch (SQLException e) {
+            throw new MyDbException(e);
+        } finally {
+            close(con, pstmt, null);
+        }
+    }
+
     @Override
     public Member findById(String memberId) {
         String sql = "select * from member where member_id = ?";
@@ -54,10 +102,7 @@ public class MemberRepositoryV4_1 implements MemberRepository{
             pstmt.setString(1, memberId);
             rs = pstmt.executeQuery();
             if(rs.next()){
-                Member member = new Member();
-                member.setMemberId(rs.getString("member_id"));
-                member.setMoney(rs.getInt("money"));
-                return member;
+                return toMember(rs);
             }else{
                 throw new NoSuchElementException("member not found memberId = " + memberId);
             }
@@ -68,9 +113,157 @@ public class MemberRepositoryV4_1 implements MemberRepository{
         }
     }
 
+    @Override
+    public Member findByIdForUpdate(String memberId) {
+        String sql = "select * from member where member_id = ? for update";
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            con = getConnection();
+            pstmt = con.prepareStatement(sql);
+            pstmt.setString(1, memberId);
+            rs = pstmt.executeQuery();
+            if (rs.next()) {
+                return toMember(rs);
+            } else {
+                throw new NoSuchElementException("member not found memberId = " + memberId);
+            }
+        } catch (SQLException e) {
+            throw new MyDbException(e);
+        } finally {
+            close(con, pstmt, rs);
+        }
+    }
+
+    @Override
+    public Map<String, Member> findAllByIds(Collection<String> memberIds) {
+        Map<String, Member> result = new HashMap<>();
+        String sql = null;
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            con = getConnection();
+            for (List<String> chunk : InClauseChunks.split(memberIds)) {
+                sql = "select * from member where member_id in (" + InClauseChunks.placeholders(chunk.size()) + ")";
+                pstmt = con.prepareStatement(sql);
+                for (int i = 0; i < chunk.size(); i++) {
+                    pstmt.setString(i + 1, chunk.get(i));
+                }
+                rs = pstmt.executeQuery();
+                while (rs.next()) {
+                    Member member = toMember(rs);
+                    result.put(member.getMemberId(), member);
+                }
+                JdbcUtils.closeResultSet(rs);
+                JdbcUtils.closeStatement(pstmt);
+                rs = null;
+                pstmt = null;
+            }
+            return result;
+        } catch (SQLException e) {
+            throw new MyDbException(e);
+        } finally {
+            close(con, pstmt, rs);
+        }
+    }
+
+    @Override
+    public Stream<Member> streamAll() {
+        String sql = "select * from member";
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            con = getConnection();
+            pstmt = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            pstmt.setFetchSize(fetchSize);
+            rs = pstmt.executeQuery();
+            Connection streamCon = con;
+            PreparedStatement streamPstmt = pstmt;
+            ResultSet streamRs = rs;
+            return ResultSetStreams.stream(rs, this::toMember, MyDbException::new,
+                    () -> close(streamCon, streamPstmt, streamRs));
+        } catch (SQLException e) {
+            close(con, pstmt, rs);
+            throw new MyDbException(e);
+        }
+    }
+
+    @Override
+    public void forEachMember(Consumer<Member> action) {
+        String sql = "select * from member";
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            con = getConnection();
+            pstmt = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            pstmt.setFetchSize(fetchSize);
+            rs = pstmt.executeQuery();
+            while (rs.next()) {
+                action.accept(toMember(rs));
+            }
+        } catch (SQLException e) {
+            throw new MyDbException(e);
+        } finally {
+            close(con, pstmt, rs);
+        }
+    }
+
+    @Override
+    public List<Member> findPageAfter(String lastMemberId, int limit) {
+        if (lastMemberId == null) {
+            return findPage("select * from member order by member_id limit ?", null, limit);
+        }
+        return findPage("select * from member where member_id > ? order by member_id limit ?", lastMemberId, limit);
+    }
+
+    @Override
+    public List<Member> findPageBefore(String lastMemberId, int limit) {
+        if (lastMemberId == null) {
+            return findPage("select * from member order by member_id desc limit ?", null, limit);
+        }
+        return findPage("select * from member where member_id < ? order by member_id desc limit ?", lastMemberId, limit);
+    }
+
+    private List<Member> findPage(String sql, String lastMemberId, int limit) {
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            con = getConnection();
+            pstmt = con.prepareStatement(sql);
+            int index = 1;
+            if (lastMemberId != null) {
+                pstmt.setString(index++, lastMemberId);
+            }
+            pstmt.setInt(index, limit);
+            rs = pstmt.executeQuery();
+            List<Member> page = new ArrayList<>(limit);
+            while (rs.next()) {
+                page.add(toMember(rs));
+            }
+            return page;
+        } catch (SQLException e) {
+            throw new MyDbException(e);
+        } finally {
+            close(con, pstmt, rs);
+        }
+    }
+
+    private Member toMember(ResultSet rs) throws SQLException {
+        Member member = new Member();
+        member.setMemberId(rs.getString("member_id"));
+        member.setMoney(rs.getInt("money"));
+        member.setVersion(rs.getLong("version"));
+        return member;
+    }
+
     @Override
     public void update(String memberId, int money) {
-        String sql = "update member set money=? where member_id=?";
+        String sql = "update member set money=?, version=version+1 where member_id=?";
         Connection con = null;
         PreparedStatement pstmt = null;
         try{
@@ -86,6 +279,150 @@ public class MemberRepositoryV4_1 implements MemberRepository{
         }
     }
 
+    @Override
+    public int updateIfVersion(String memberId, int money, long expectedVersion) {
+        String sql = "update member set money=?, version=version+1 where member_id=? and version=?";
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        try {
+            con = getConnection();
+            pstmt = con.prepareStatement(sql);
+            pstmt.setInt(1, money);
+            pstmt.setString(2, memberId);
+            pstmt.setLong(3, expectedVersion);
+            return pstmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new MyDbException(e);
+        } finally {
+            close(con, pstmt, null);
+        }
+    }
+
+    @Override
+    public int addMoney(String memberId, int delta) {
+        String sql = "update member set money = money + ?, version = version + 1 where member_id = ?";
+        return executeAddMoney(sql, memberId, delta, false);
+    }
+
+    @Override
+    public int addMoneyIfSufficient(String memberId, int delta) {
+        String sql = "update member set money = money + ?, version = version + 1 where member_id = ? and money + ? >= 0";
+        return executeAddMoney(sql, memberId, delta, true);
+    }
+
+    @Override
+    public int transferMoney(String fromId, String toId, int money) {
+        String sql = "update member set money = case member_id when ? then money - ? when ? then money + ? end, version = version + 1" +
+                " where member_id in (?, ?) and (member_id <> ? or money >= ?)" +
+                " and exists (select 1 from member where member_id = ? and money >= ?)";
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        try {
+            con = getConnection();
+            pstmt = con.prepareStatement(sql);
+            pstmt.setString(1, fromId);
+            pstmt.setInt(2, money);
+            pstmt.setString(3, toId);
+            pstmt.setInt(4, money);
+            pstmt.setString(5, fromId);
+            pstmt.setString(6, toId);
+            pstmt.setString(7, fromId);
+            pstmt.setInt(8, money);
+            pstmt.setString(9, fromId);
+            pstmt.setInt(10, money);
+            return pstmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new MyDbException(e);
+        } finally {
+            close(con, pstmt, null);
+        }
+    }
+
+    private int executeAddMoney(String sql, String memberId, int delta, boolean guard) {
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        try {
+            con = getConnection();
+            pstmt = con.prepareStatement(sql);
+            pstmt.setInt(1, delta);
+            pstmt.setString(2, memberId);
+            if (guard) {
+                pstmt.setInt(3, delta);
+            }
+            return pstmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new MyDbException(e);
+        } finally {
+            close(con, pstmt, null);
+        }
+    }
+
+    @Override
+    public int[] updateAll(Map<String, Integer> moneyByMemberId) {
+        String sql = "update member set money=?, version=version+1 where member_id=?";
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        try {
+            con = getConnection();
+            pstmt = con.prepareStatement(sql);
+            int[] result = new int[moneyByMemberId.size()];
+            int count = 0;
+            int flushed = 0;
+            for (Map.Entry<String, Integer> entry : moneyByMemberId.entrySet()) {
+                pstmt.setInt(1, entry.getValue());
+                pstmt.setString(2, entry.getKey());
+                pstmt.addBatch();
+                if (++count % batchSize == 0) {
+                    flushed = copy(pstmt.executeBatch(), result, flushed);
+                }
+            }
+            if (count % batchSize != 0) {
+                copy(pstmt.executeBatch(), result, flushed);
+            }
+            return result;
+        } catch (SQLException e) {
+            throw new MyDbException(e);
+        } finally {
+            close(con, pstmt, null);
+        }
+    }
+
+    @Override
+    public int[] addMoneyAll(Map<String, Integer> deltaByMemberId) {
+        String sql = "update member set money = money + ?, version = version + 1 where member_id = ? and money + ? >= 0";
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        try {
+            con = getConnection();
+            pstmt = con.prepareStatement(sql);
+            int[] result = new int[deltaByMemberId.size()];
+            int count = 0;
+            int flushed = 0;
+            for (Map.Entry<String, Integer> entry : deltaByMemberId.entrySet()) {
+                pstmt.setInt(1, entry.getValue());
+                pstmt.setString(2, entry.getKey());
+                pstmt.setInt(3, entry.getValue());
+                pstmt.addBatch();
+                if (++count % batchSize == 0) {
+                    flushed = copy(pstmt.executeBatch(), result, flushed);
+                }
+            }
+            if (count % batchSize != 0) {
+                copy(pstmt.executeBatch(), result, flushed);
+            }
+            return result;
+        } catch (SQLException e) {
+            throw new MyDbException(e);
+        } finally {
+            close(con, pstmt, null);
+        }
+    }
+
+    private int copy(int[] counts, int[] result, int offset) {
+        System.arraycopy(counts, 0, result, offset, counts.length);
+        return offset + counts.length;
+    }
+
     @Override
     public void delete(String memberId) {
         String sql = "delete from member where member_id=?";
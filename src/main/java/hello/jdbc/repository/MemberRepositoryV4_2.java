@@ -12,17 +12,34 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 @Slf4j
 public class MemberRepositoryV4_2 implements MemberRepository{
     private final DataSource dataSource;
     private final SQLExceptionTranslator exTranslator;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int fetchSize = DEFAULT_FETCH_SIZE;
 
     public MemberRepositoryV4_2(DataSource dataSource){
         this.dataSource = dataSource;
         this.exTranslator = new SQLErrorCodeSQLExceptionTranslator(dataSource);
     }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
     private Connection getConnection(){
         Connection con = DataSourceUtils.getConnection(dataSource);
         log.info("get connection={} class={}", con, con.getClass());
@@ -53,6 +70,33 @@ public class MemberRepositoryV4_2 implements MemberRepository{
         }
     }
 
+    @Override
+    public void saveAll(Collection<Member> members) {
+        String sql = "insert into member(member_id, money) values(?, ?)";
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        try{
+            con = getConnection();
+            pstmt = con.prepareStatement(sql);
+            int count = 0;
+            for(Member member : members){
+                pstmt.setString(1, member.getMemberId());
+                pstmt.setInt(2, member.getMoney());
+                pstmt.addBatch();
+                if(++count % batchSize == 0){
+                    pstmt.executeBatch();
+                }
+            }
+            if(count % batchSize != 0){
+                pstmt.executeBatch();
+            }
+        }catch(SQLException e){
+            throw exTranslator.translate("saveAll", sql, e);
+        }finally{
+            close(con, pstmt, null);
+        }
+    }
+
     @Override
     public Member findById(String memberId) {
         String sql = "select * from member where member_id=?";
@@ -65,10 +109,7 @@ public class MemberRepositoryV4_2 implements MemberRepository{
             pstmt.setString(1, memberId);
             rs = pstmt.executeQuery();
             if(rs.next()){
-                Member member = new Member();
-                member.setMemberId(rs.getString("member_id"));
-                member.setMoney(rs.getInt("money"));
-                return member;
+                return toMember(rs);
             }else{
                 // member 테이블에 memberId에 해당하는 row가 없을 경우
                 throw new NoSuchElementException("member not found memberId="+memberId);
@@ -80,9 +121,158 @@ public class MemberRepositoryV4_2 implements MemberRepository{
         }
     }
 
+    @Override
+    public Member findByIdForUpdate(String memberId) {
+        String sql = "select * from member where member_id=? for update";
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try{
+            con = getConnection();
+            pstmt = con.prepareStatement(sql);
+            pstmt.setString(1, memberId);
+            rs = pstmt.executeQuery();
+            if(rs.next()){
+                return toMember(rs);
+            }else{
+                throw new NoSuchElementException("member not found memberId="+memberId);
+            }
+        }catch(SQLException e){
+            // 락 대기 시간 초과는 CannotAcquireLockException 등으로 변환된다.
+            throw exTranslator.translate("findByIdForUpdate", sql, e);
+        }finally{
+            close(con, pstmt, rs);
+        }
+    }
+
+    @Override
+    public Map<String, Member> findAllByIds(Collection<String> memberIds) {
+        Map<String, Member> result = new HashMap<>();
+        String sql = null;
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try{
+            con = getConnection();
+            for(List<String> chunk : InClauseChunks.split(memberIds)){
+                sql = "select * from member where member_id in (" + InClauseChunks.placeholders(chunk.size()) + ")";
+                pstmt = con.prepareStatement(sql);
+                for(int i = 0; i < chunk.size(); i++){
+                    pstmt.setString(i + 1, chunk.get(i));
+                }
+                rs = pstmt.executeQuery();
+                while(rs.next()){
+                    Member member = toMember(rs);
+                    result.put(member.getMemberId(), member);
+                }
+                JdbcUtils.closeResultSet(rs);
+                JdbcUtils.closeStatement(pstmt);
+                rs = null;
+                pstmt = null;
+            }
+            return result;
+        }catch(SQLException e){
+            throw exTranslator.translate("findAllByIds", sql, e);
+        }finally{
+            close(con, pstmt, rs);
+        }
+    }
+
+    @Override
+    public Stream<Member> streamAll() {
+        String sql = "select * from member";
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try{
+            con = getConnection();
+            pstmt = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            pstmt.setFetchSize(fetchSize);
+            rs = pstmt.executeQuery();
+            Connection streamCon = con;
+            PreparedStatement streamPstmt = pstmt;
+            ResultSet streamRs = rs;
+            return ResultSetStreams.stream(rs, this::toMember, e -> exTranslator.translate("streamAll", sql, e),
+                    () -> close(streamCon, streamPstmt, streamRs));
+        }catch(SQLException e){
+            close(con, pstmt, rs);
+            throw exTranslator.translate("streamAll", sql, e);
+        }
+    }
+
+    @Override
+    public void forEachMember(Consumer<Member> action) {
+        String sql = "select * from member";
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try{
+            con = getConnection();
+            pstmt = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            pstmt.setFetchSize(fetchSize);
+            rs = pstmt.executeQuery();
+            while(rs.next()){
+                action.accept(toMember(rs));
+            }
+        }catch(SQLException e){
+            throw exTranslator.translate("forEachMember", sql, e);
+        }finally{
+            close(con, pstmt, rs);
+        }
+    }
+
+    @Override
+    public List<Member> findPageAfter(String lastMemberId, int limit) {
+        if (lastMemberId == null) {
+            return findPage("select * from member order by member_id limit ?", null, limit);
+        }
+        return findPage("select * from member where member_id > ? order by member_id limit ?", lastMemberId, limit);
+    }
+
+    @Override
+    public List<Member> findPageBefore(String lastMemberId, int limit) {
+        if (lastMemberId == null) {
+            return findPage("select * from member order by member_id desc limit ?", null, limit);
+        }
+        return findPage("select * from member where member_id < ? order by member_id desc limit ?", lastMemberId, limit);
+    }
+
+    private List<Member> findPage(String sql, String lastMemberId, int limit) {
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try{
+            con = getConnection();
+            pstmt = con.prepareStatement(sql);
+            int index = 1;
+            if (lastMemberId != null) {
+                pstmt.setString(index++, lastMemberId);
+            }
+            pstmt.setInt(index, limit);
+            rs = pstmt.executeQuery();
+            List<Member> page = new ArrayList<>(limit);
+            while(rs.next()){
+                page.add(toMember(rs));
+            }
+            return page;
+        }catch(SQLException e){
+            throw exTranslator.translate("findPage", sql, e);
+        }finally{
+            close(con, pstmt, rs);
+        }
+    }
+
+    private Member toMember(ResultSet rs) throws SQLException {
+        Member member = new Member();
+        member.setMemberId(rs.getString("member_id"));
+        member.setMoney(rs.getInt("money"));
+        member.setVersion(rs.getLong("version"));
+        return member;
+    }
+
     @Override
     public void update(String memberId, int money) {
-        String sql = "update member set money=? where member_id=?";
+        String sql = "update member set money=?, version=version+1 where member_id=?";
         Connection con = null;
         PreparedStatement pstmt = null;
         try{
@@ -98,6 +288,150 @@ public class MemberRepositoryV4_2 implements MemberRepository{
         }
     }
 
+    @Override
+    public int updateIfVersion(String memberId, int money, long expectedVersion) {
+        String sql = "update member set money=?, version=version+1 where member_id=? and version=?";
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        try{
+            con = getConnection();
+            pstmt = con.prepareStatement(sql);
+            pstmt.setInt(1, money);
+            pstmt.setString(2, memberId);
+            pstmt.setLong(3, expectedVersion);
+            return pstmt.executeUpdate();
+        }catch(SQLException e){
+            throw exTranslator.translate("updateIfVersion", sql, e);
+        }finally{
+            close(con, pstmt, null);
+        }
+    }
+
+    @Override
+    public int addMoney(String memberId, int delta) {
+        String sql = "update member set money = money + ?, version = version + 1 where member_id = ?";
+        return executeAddMoney(sql, memberId, delta, false);
+    }
+
+    @Override
+    public int addMoneyIfSufficient(String memberId, int delta) {
+        String sql = "update member set money = money + ?, version = version + 1 where member_id = ? and money + ? >= 0";
+        return executeAddMoney(sql, memberId, delta, true);
+    }
+
+    @Override
+    public int transferMoney(String fromId, String toId, int money) {
+        String sql = "update member set money = case member_id when ? then money - ? when ? then money + ? end, version = version + 1" +
+                " where member_id in (?, ?) and (member_id <> ? or money >= ?)" +
+                " and exists (select 1 from member where member_id = ? and money >= ?)";
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        try{
+            con = getConnection();
+            pstmt = con.prepareStatement(sql);
+            pstmt.setString(1, fromId);
+            pstmt.setInt(2, money);
+            pstmt.setString(3, toId);
+            pstmt.setInt(4, money);
+            pstmt.setString(5, fromId);
+            pstmt.setString(6, toId);
+            pstmt.setString(7, fromId);
+            pstmt.setInt(8, money);
+            pstmt.setString(9, fromId);
+            pstmt.setInt(10, money);
+            return pstmt.executeUpdate();
+        }catch(SQLException e){
+            throw exTranslator.translate("transferMoney", sql, e);
+        }finally{
+            close(con, pstmt, null);
+        }
+    }
+
+    private int executeAddMoney(String sql, String memberId, int delta, boolean guard) {
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        try{
+            con = getConnection();
+            pstmt = con.prepareStatement(sql);
+            pstmt.setInt(1, delta);
+            pstmt.setString(2, memberId);
+            if(guard){
+                pstmt.setInt(3, delta);
+            }
+            return pstmt.executeUpdate();
+        }catch(SQLException e){
+            throw exTranslator.translate("addMoney", sql, e);
+        }finally{
+            close(con, pstmt, null);
+        }
+    }
+
+    @Override
+    public int[] updateAll(Map<String, Integer> moneyByMemberId) {
+        String sql = "update member set money=?, version=version+1 where member_id=?";
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        try{
+            con = getConnection();
+            pstmt = con.prepareStatement(sql);
+            int[] result = new int[moneyByMemberId.size()];
+            int count = 0;
+            int flushed = 0;
+            for(Map.Entry<String, Integer> entry : moneyByMemberId.entrySet()){
+                pstmt.setInt(1, entry.getValue());
+                pstmt.setString(2, entry.getKey());
+                pstmt.addBatch();
+                if(++count % batchSize == 0){
+                    flushed = copy(pstmt.executeBatch(), result, flushed);
+                }
+            }
+            if(count % batchSize != 0){
+                copy(pstmt.executeBatch(), result, flushed);
+            }
+            return result;
+        }catch(SQLException e){
+            throw exTranslator.translate("updateAll", sql, e);
+        }finally{
+            close(con, pstmt, null);
+        }
+    }
+
+    @Override
+    public int[] addMoneyAll(Map<String, Integer> deltaByMemberId) {
+        String sql = "update member set money = money + ?, version = version + 1 where member_id = ? and money + ? >= 0";
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        try{
+            con = getConnection();
+            pstmt = con.prepareStatement(sql);
+            int[] result = new int[deltaByMemberId.size()];
+            int count = 0;
+            int flushed = 0;
+            for(Map.Entry<String, Integer> entry : deltaByMemberId.entrySet()){
+                pstmt.setInt(1, entry.getValue());
+                pstmt.setString(2, entry.getKey());
+                pstmt.setInt(3, entry.getValue());
+                pstmt.addBatch();
+                if(++count % batchSize == 0){
+                    flushed = copy(pstmt.executeBatch(), result, flushed);
+                }
+            }
+            if(count % batchSize != 0){
+                copy(pstmt.executeBatch(), result, flushed);
+            }
+            return result;
+        }catch(SQLException e){
+            throw exTranslator.translate("addMoneyAll", sql, e);
+        }finally{
+            close(con, pstmt, null);
+        }
+    }
+
+    private int copy(int[] counts, int[] result, int offset){
+        System.arraycopy(counts, 0, result, offset, counts.length);
+        return offset + counts.length;
+    }
+
     @Override
     public void delete(String memberId) {
         String sql = "delete from member where member_id=?";
@@ -3,9 +3,16 @@ package hello.jdbc.repository;
 import hello.jdbc.domain.Member;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 
 import javax.sql.DataSource;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /*
 * JdbcTemplate 사용
@@ -32,9 +39,22 @@ import javax.sql.DataSource;
 public class MemberRepositoryV5 implements MemberRepository {
 
     private final JdbcTemplate jdbcTemplate;
+    // 전체 조회용 : fetchSize만 다르게 설정한 JdbcTemplate
+    private final JdbcTemplate scanTemplate;
+    private int batchSize = DEFAULT_BATCH_SIZE;
 
     public MemberRepositoryV5(DataSource dataSource){
         this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.scanTemplate = new JdbcTemplate(dataSource);
+        this.scanTemplate.setFetchSize(DEFAULT_FETCH_SIZE);
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setFetchSize(int fetchSize) {
+        this.scanTemplate.setFetchSize(fetchSize);
     }
 
     @Override
@@ -49,6 +69,16 @@ public class MemberRepositoryV5 implements MemberRepository {
 //        실행해준다.
     }
 
+    @Override
+    public void saveAll(Collection<Member> members) {
+        String sql = "insert into member(member_id, money) values(?, ?)";
+        jdbcTemplate.batchUpdate(sql, members, batchSize, (ps, member) -> {
+            ps.setString(1, member.getMemberId());
+            ps.setInt(2, member.getMoney());
+        });
+//        batchUpdate는 batchSize개씩 잘라서 addBatch/executeBatch를 반복해준다.
+    }
+
     @Override
     public Member findById(String memberId) {
         String sql = "select * from member where member_id=?";
@@ -58,21 +88,131 @@ public class MemberRepositoryV5 implements MemberRepository {
 //        세번째 인자부터는 ?에 들어갈 순서대로 써준다.
     }
 
+    @Override
+    public Member findByIdForUpdate(String memberId) {
+        String sql = "select * from member where member_id=? for update";
+        return jdbcTemplate.queryForObject(sql, memberRowMapper(), memberId);
+    }
+
+    @Override
+    public Map<String, Member> findAllByIds(Collection<String> memberIds) {
+        Map<String, Member> result = new HashMap<>();
+        for (List<String> chunk : InClauseChunks.split(memberIds)) {
+            String sql = "select * from member where member_id in (" + InClauseChunks.placeholders(chunk.size()) + ")";
+            for (Member member : jdbcTemplate.query(sql, memberRowMapper(), chunk.toArray())) {
+                result.put(member.getMemberId(), member);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Stream<Member> streamAll() {
+        String sql = "select * from member";
+        return scanTemplate.queryForStream(sql, memberRowMapper());
+//        queryForStream은 Stream을 close() 할 때 ResultSet, PreparedStatement를 닫고
+//        DataSourceUtils.releaseConnection()으로 커넥션을 반납한다.
+    }
+
+    @Override
+    public void forEachMember(Consumer<Member> action) {
+        String sql = "select * from member";
+        RowMapper<Member> rowMapper = memberRowMapper();
+        scanTemplate.query(sql, (RowCallbackHandler) rs -> action.accept(rowMapper.mapRow(rs, rs.getRow())));
+    }
+
+    @Override
+    public List<Member> findPageAfter(String lastMemberId, int limit) {
+        if (lastMemberId == null) {
+            return jdbcTemplate.query("select * from member order by member_id limit ?", memberRowMapper(), limit);
+        }
+        String sql = "select * from member where member_id > ? order by member_id limit ?";
+        return jdbcTemplate.query(sql, memberRowMapper(), lastMemberId, limit);
+    }
+
+    @Override
+    public List<Member> findPageBefore(String lastMemberId, int limit) {
+        if (lastMemberId == null) {
+            return jdbcTemplate.query("select * from member order by member_id desc limit ?", memberRowMapper(), limit);
+        }
+        String sql = "select * from member where member_id < ? order by member_id desc limit ?";
+        return jdbcTemplate.query(sql, memberRowMapper(), lastMemberId, limit);
+    }
+
     private RowMapper<Member> memberRowMapper(){
         return (rs, rowNum)->{
             Member member = new Member();
             member.setMemberId(rs.getString("member_id"));
             member.setMoney(rs.getInt("money"));
+            member.setVersion(rs.getLong("version"));
             return member;
         };
     }
 
     @Override
     public void update(String memberId, int money) {
-        String sql = "update member set money=? where member_id=?";
+        String sql = "update member set money=?, version=version+1 where member_id=?";
         jdbcTemplate.update(sql, money, memberId);
     }
 
+    @Override
+    public int updateIfVersion(String memberId, int money, long expectedVersion) {
+        String sql = "update member set money=?, version=version+1 where member_id=? and version=?";
+        return jdbcTemplate.update(sql, money, memberId, expectedVersion);
+    }
+
+    @Override
+    public int addMoney(String memberId, int delta) {
+        String sql = "update member set money = money + ?, version = version + 1 where member_id = ?";
+        return jdbcTemplate.update(sql, delta, memberId);
+    }
+
+    @Override
+    public int addMoneyIfSufficient(String memberId, int delta) {
+        String sql = "update member set money = money + ?, version = version + 1 where member_id = ? and money + ? >= 0";
+        return jdbcTemplate.update(sql, delta, memberId, delta);
+    }
+
+    @Override
+    public int transferMoney(String fromId, String toId, int money) {
+        String sql = "update member set money = case member_id when ? then money - ? when ? then money + ? end, version = version + 1" +
+                " where member_id in (?, ?) and (member_id <> ? or money >= ?)" +
+                " and exists (select 1 from member where member_id = ? and money >= ?)";
+        return jdbcTemplate.update(sql, fromId, money, toId, money, fromId, toId, fromId, money, fromId, money);
+    }
+
+    @Override
+    public int[] updateAll(Map<String, Integer> moneyByMemberId) {
+        String sql = "update member set money=?, version=version+1 where member_id=?";
+        int[][] counts = jdbcTemplate.batchUpdate(sql, moneyByMemberId.entrySet(), batchSize, (ps, entry) -> {
+            ps.setInt(1, entry.getValue());
+            ps.setString(2, entry.getKey());
+        });
+        return flatten(counts, moneyByMemberId.size());
+    }
+
+//    청크별로 나뉜 결과를 입력 순서대로 하나의 배열로 펼친다.
+    private int[] flatten(int[][] counts, int size) {
+        int[] result = new int[size];
+        int offset = 0;
+        for (int[] chunk : counts) {
+            System.arraycopy(chunk, 0, result, offset, chunk.length);
+            offset += chunk.length;
+        }
+        return result;
+    }
+
+    @Override
+    public int[] addMoneyAll(Map<String, Integer> deltaByMemberId) {
+        String sql = "update member set money = money + ?, version = version + 1 where member_id = ? and money + ? >= 0";
+        int[][] counts = jdbcTemplate.batchUpdate(sql, deltaByMemberId.entrySet(), batchSize, (ps, entry) -> {
+            ps.setInt(1, entry.getValue());
+            ps.setString(2, entry.getKey());
+            ps.setInt(3, entry.getValue());
+        });
+        return flatten(counts, deltaByMemberId.size());
+    }
+
     @Override
     public void delete(String memberId) {
         String sql = "delete from member where member_id=?";
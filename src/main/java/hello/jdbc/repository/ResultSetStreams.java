@@ -0,0 +1,45 @@
+package hello.jdbc.repository;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/*
+*   ResultSet을 한 행씩 읽어오는 지연(lazy) Stream
+*   Stream을 close() 할 때 onClose(ResultSet, Statement, 커넥션 정리)가 실행된다.
+*   JdbcTemplate.queryForStream()과 같은 방식을 순수 JDBC 리포지토리(V4_1, V4_2)에서 쓰기 위해 만들었다.
+* */
+final class ResultSetStreams {
+
+    @FunctionalInterface
+    interface RowReader<T> {
+        T read(ResultSet rs) throws SQLException;
+    }
+
+    private ResultSetStreams() {
+    }
+
+    static <T> Stream<T> stream(ResultSet rs, RowReader<T> reader,
+                                Function<SQLException, RuntimeException> exTranslator, Runnable onClose) {
+        Spliterator<T> spliterator = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.ORDERED) {
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                try {
+                    if (!rs.next()) {
+                        return false;
+                    }
+                    action.accept(reader.read(rs));
+                    return true;
+                } catch (SQLException e) {
+                    throw exTranslator.apply(e);
+                }
+            }
+        };
+        return StreamSupport.stream(spliterator, false).onClose(onClose);
+    }
+}
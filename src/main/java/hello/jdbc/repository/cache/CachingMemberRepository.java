@@ -0,0 +1,272 @@
+package hello.jdbc.repository.cache;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepository;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/*
+*   읽기 캐시 데코레이터 (read-through)
+*   MemberRepositoryV4_1, V4_2, V5 등 어떤 MemberRepository든 감쌀 수 있다.
+*
+*   - findById, findAllByIds : 캐시에 있으면 DB에 가지 않는다. 없으면 DB에서 읽고 캐시에 넣는다.
+*   - 변경(save, update, delete, addMoney ...) : DB에 먼저 쓰고(write-through) 캐시에서 해당 회원을 지운다.
+*   - 전체 조회, 페이징 : 캐시를 거치지 않는다.
+*
+*   트랜잭션 안에서의 변경 (TransactionSynchronizationManager)
+*   - 변경한 회원 id를 트랜잭션별로 모아뒀다가 커밋이 끝난 뒤(afterCompletion)에 캐시에서 지운다.
+*     커밋 전에 지우면 그 사이에 다른 스레드가 커밋 전 값(옛날 값)을 다시 캐시에 넣을 수 있다.
+*   - 롤백된 것이 확실할 때만 모아둔 변경을 그냥 버린다. (DB도 캐시도 바뀐 것이 없다.)
+*     커밋 중 오류로 결과를 알 수 없으면 커밋된 것으로 보고 지운다.
+*   - 트랜잭션 안에서 변경한 회원은 캐시를 거치지 않고 트랜잭션 커넥션으로 읽는다. (자기가 쓴 값을 읽는다.)
+*   - 트랜잭션 안에서 읽은 값은 공유 캐시에 넣지 않는다. 커밋되지 않은 값이 다른 스레드에 보이면 안되기 때문이다.
+* */
+public class CachingMemberRepository implements MemberRepository {
+    public static final int DEFAULT_MAX_SIZE = 10_000;
+    public static final Duration DEFAULT_TTL = Duration.ofSeconds(30);
+
+    private final MemberRepository delegate;
+    private final MemberCache cache;
+
+    public CachingMemberRepository(MemberRepository delegate) {
+        this(delegate, new MemberCache(DEFAULT_MAX_SIZE, DEFAULT_TTL));
+    }
+
+    public CachingMemberRepository(MemberRepository delegate, MemberCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    public MemberCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public Member findById(String memberId) {
+        TxState tx = txState(false);
+        boolean inTx = isTransactionActive();
+        if (tx != null && tx.written.contains(memberId)) {
+            return delegate.findById(memberId);
+        }
+        Member cached = cache.get(memberId);
+        if (cached != null) {
+            return cached;
+        }
+        long stamp = cache.stamp();
+        Member member = delegate.findById(memberId);
+        if (!inTx) {
+            cache.putIfValid(member, stamp);
+        }
+        return member;
+    }
+
+    // 락을 거는 조회는 항상 DB로 보낸다. 트랜잭션 안이므로 결과를 공유 캐시에 넣지 않는다.
+    @Override
+    public Member findByIdForUpdate(String memberId) {
+        return delegate.findByIdForUpdate(memberId);
+    }
+
+    @Override
+    public Map<String, Member> findAllByIds(Collection<String> memberIds) {
+        TxState tx = txState(false);
+        boolean inTx = isTransactionActive();
+        Map<String, Member> result = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String memberId : memberIds) {
+            Member cached = tx != null && tx.written.contains(memberId) ? null : cache.get(memberId);
+            if (cached != null) {
+                result.put(memberId, cached);
+            } else {
+                missing.add(memberId);
+            }
+        }
+        if (!missing.isEmpty()) {
+            long stamp = cache.stamp();
+            Map<String, Member> loaded = delegate.findAllByIds(missing);
+            if (!inTx) {
+                for (Member member : loaded.values()) {
+                    cache.putIfValid(member, stamp);
+                }
+            }
+            result.putAll(loaded);
+        }
+        return result;
+    }
+
+    @Override
+    public Member save(Member member) {
+        try {
+            return delegate.save(member);
+        } finally {
+            written(List.of(member.getMemberId()));
+        }
+    }
+
+    @Override
+    public void update(String memberId, int money) {
+        try {
+            delegate.update(memberId, money);
+        } finally {
+            written(List.of(memberId));
+        }
+    }
+
+    @Override
+    public int updateIfVersion(String memberId, int money, long expectedVersion) {
+        try {
+            return delegate.updateIfVersion(memberId, money, expectedVersion);
+        } finally {
+            written(List.of(memberId));
+        }
+    }
+
+    @Override
+    public void delete(String memberId) {
+        try {
+            delegate.delete(memberId);
+        } finally {
+            written(List.of(memberId));
+        }
+    }
+
+    @Override
+    public int addMoney(String memberId, int delta) {
+        try {
+            return delegate.addMoney(memberId, delta);
+        } finally {
+            written(List.of(memberId));
+        }
+    }
+
+    @Override
+    public int addMoneyIfSufficient(String memberId, int delta) {
+        try {
+            return delegate.addMoneyIfSufficient(memberId, delta);
+        } finally {
+            written(List.of(memberId));
+        }
+    }
+
+    @Override
+    public int transferMoney(String fromId, String toId, int money) {
+        try {
+            return delegate.transferMoney(fromId, toId, money);
+        } finally {
+            written(List.of(fromId, toId));
+        }
+    }
+
+    @Override
+    public void saveAll(Collection<Member> members) {
+        List<String> memberIds = new ArrayList<>(members.size());
+        for (Member member : members) {
+            memberIds.add(member.getMemberId());
+        }
+        try {
+            delegate.saveAll(members);
+        } finally {
+            written(memberIds);
+        }
+    }
+
+    @Override
+    public int[] updateAll(Map<String, Integer> moneyByMemberId) {
+        try {
+            return delegate.updateAll(moneyByMemberId);
+        } finally {
+            written(moneyByMemberId.keySet());
+        }
+    }
+
+    @Override
+    public int[] addMoneyAll(Map<String, Integer> deltaByMemberId) {
+        try {
+            return delegate.addMoneyAll(deltaByMemberId);
+        } finally {
+            written(deltaByMemberId.keySet());
+        }
+    }
+
+    @Override
+    public Stream<Member> streamAll() {
+        return delegate.streamAll();
+    }
+
+    @Override
+    public void forEachMember(Consumer<Member> action) {
+        delegate.forEachMember(action);
+    }
+
+    @Override
+    public List<Member> findPageAfter(String lastMemberId, int limit) {
+        return delegate.findPageAfter(lastMemberId, limit);
+    }
+
+    @Override
+    public List<Member> findPageBefore(String lastMemberId, int limit) {
+        return delegate.findPageBefore(lastMemberId, limit);
+    }
+
+    // 트랜잭션 밖이면 바로 캐시에서 지우고, 트랜잭션 안이면 커밋될 때까지 모아둔다.
+    private void written(Collection<String> memberIds) {
+        TxState tx = txState(true);
+        if (tx == null) {
+            cache.invalidateAll(memberIds);
+        } else {
+            tx.written.addAll(memberIds);
+        }
+    }
+
+    private static boolean isTransactionActive() {
+        return TransactionSynchronizationManager.isSynchronizationActive()
+                && TransactionSynchronizationManager.isActualTransactionActive();
+    }
+
+    // 현재 트랜잭션에 묶인 상태. 리포지토리 인스턴스(this)를 키로 트랜잭션 리소스에 등록한다.
+    private TxState txState(boolean create) {
+        if (!isTransactionActive()) {
+            return null;
+        }
+        TxState tx = (TxState) TransactionSynchronizationManager.getResource(this);
+        if (tx == null && create) {
+            tx = new TxState();
+            TransactionSynchronizationManager.bindResource(this, tx);
+            TransactionSynchronizationManager.registerSynchronization(tx);
+        }
+        return tx;
+    }
+
+    private class TxState implements TransactionSynchronization {
+        private final Set<String> written = new HashSet<>();
+
+        @Override
+        public void suspend() {
+            TransactionSynchronizationManager.unbindResource(CachingMemberRepository.this);
+        }
+
+        @Override
+        public void resume() {
+            TransactionSynchronizationManager.bindResource(CachingMemberRepository.this, this);
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(CachingMemberRepository.this);
+            // 커밋 결과를 모르는 경우(STATUS_UNKNOWN)에도 커밋됐을 수 있으므로 지운다.
+            if (status != STATUS_ROLLED_BACK) {
+                cache.invalidateAll(written);
+            }
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package hello.jdbc.repository.cache;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepository;
+import org.springframework.transaction.support.ResourceHolderSupport;
+import org.springframework.transaction.support.ResourceHolderSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/*
+*   트랜잭션 범위 1차 캐시 (identity map)
+*   DataSourceUtils가 커넥션(ConnectionHolder)을 트랜잭션 동기화 매니저에 묶어두는 것처럼
+*   트랜잭션마다 Map<memberId, Member>를 TransactionSynchronizationManager에 리소스로 묶어둔다.
+*
+*   - 같은 트랜잭션 안에서 같은 회원을 다시 findById 하면 DB에 가지 않고 처음 읽은 Member 인스턴스를 그대로 돌려준다.
+*   - update, addMoney 등으로 변경하면 Map 안의 Member도 같이 갱신한다. (money, version)
+*   - 트랜잭션이 끝나면(커밋, 롤백) Map은 버려진다. 트랜잭션 밖에서는 delegate를 그대로 호출한다.
+* */
+public class IdentityMapMemberRepository implements MemberRepository {
+    private final MemberRepository delegate;
+
+    public IdentityMapMemberRepository(MemberRepository delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Member findById(String memberId) {
+        Map<String, Member> identityMap = identityMap();
+        if (identityMap == null) {
+            return delegate.findById(memberId);
+        }
+        Member member = identityMap.get(memberId);
+        if (member == null) {
+            member = delegate.findById(memberId);
+            identityMap.put(memberId, member);
+        }
+        return member;
+    }
+
+    // 락을 건 시점의 값을 읽어서 이미 관리중인 인스턴스가 있으면 그 인스턴스를 갱신해서 돌려준다.
+    @Override
+    public Member findByIdForUpdate(String memberId) {
+        Member locked = delegate.findByIdForUpdate(memberId);
+        Map<String, Member> identityMap = identityMap();
+        if (identityMap == null) {
+            return locked;
+        }
+        Member member = identityMap.get(memberId);
+        if (member == null) {
+            identityMap.put(memberId, locked);
+            return locked;
+        }
+        member.setMoney(locked.getMoney());
+        member.setVersion(locked.getVersion());
+        return member;
+    }
+
+    @Override
+    public Map<String, Member> findAllByIds(Collection<String> memberIds) {
+        Map<String, Member> identityMap = identityMap();
+        if (identityMap == null) {
+            return delegate.findAllByIds(memberIds);
+        }
+        Map<String, Member> result = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String memberId : memberIds) {
+            Member member = identityMap.get(memberId);
+            if (member != null) {
+                result.put(memberId, member);
+            } else {
+                missing.add(memberId);
+            }
+        }
+        if (!missing.isEmpty()) {
+            Map<String, Member> loaded = delegate.findAllByIds(missing);
+            identityMap.putAll(loaded);
+            result.putAll(loaded);
+        }
+        return result;
+    }
+
+    @Override
+    public Member save(Member member) {
+        Member saved = delegate.save(member);
+        Map<String, Member> identityMap = identityMap();
+        if (identityMap != null) {
+            identityMap.put(saved.getMemberId(), saved);
+        }
+        return saved;
+    }
+
+    @Override
+    public void saveAll(Collection<Member> members) {
+        delegate.saveAll(members);
+        Map<String, Member> identityMap = identityMap();
+        if (identityMap != null) {
+            for (Member member : members) {
+                identityMap.put(member.getMemberId(), member);
+            }
+        }
+    }
+
+    @Override
+    public void update(String memberId, int money) {
+        delegate.update(memberId, money);
+        Member member = managed(memberId);
+        if (member != null) {
+            member.setMoney(money);
+            member.setVersion(member.getVersion() + 1);
+        }
+    }
+
+    @Override
+    public int updateIfVersion(String memberId, int money, long expectedVersion) {
+        int count = delegate.updateIfVersion(memberId, money, expectedVersion);
+        Member member = managed(memberId);
+        if (member != null && count > 0) {
+            member.setMoney(money);
+            member.setVersion(expectedVersion + 1);
+        }
+        return count;
+    }
+
+    @Override
+    public int[] updateAll(Map<String, Integer> moneyByMemberId) {
+        int[] counts = delegate.updateAll(moneyByMemberId);
+        int i = 0;
+        for (Map.Entry<String, Integer> entry : moneyByMemberId.entrySet()) {
+            Member member = managed(entry.getKey());
+            if (member != null && counts[i] > 0) {
+                member.setMoney(entry.getValue());
+                member.setVersion(member.getVersion() + 1);
+            }
+            i++;
+        }
+        return counts;
+    }
+
+    @Override
+    public int[] addMoneyAll(Map<String, Integer> deltaByMemberId) {
+        int[] counts = delegate.addMoneyAll(deltaByMemberId);
+        int i = 0;
+        for (Map.Entry<String, Integer> entry : deltaByMemberId.entrySet()) {
+            applyDelta(entry.getKey(), entry.getValue(), counts[i++]);
+        }
+        return counts;
+    }
+
+    @Override
+    public void delete(String memberId) {
+        delegate.delete(memberId);
+        Map<String, Member> identityMap = identityMap();
+        if (identityMap != null) {
+            identityMap.remove(memberId);
+        }
+    }
+
+    @Override
+    public int addMoney(String memberId, int delta) {
+        int count = delegate.addMoney(memberId, delta);
+        applyDelta(memberId, delta, count);
+        return count;
+    }
+
+    @Override
+    public int addMoneyIfSufficient(String memberId, int delta) {
+        int count = delegate.addMoneyIfSufficient(memberId, delta);
+        applyDelta(memberId, delta, count);
+        return count;
+    }
+
+    @Override
+    public int transferMoney(String fromId, String toId, int money) {
+        int count = delegate.transferMoney(fromId, toId, money);
+        Map<String, Member> identityMap = identityMap();
+        if (identityMap != null) {
+            if (count == 2) {
+                applyDelta(fromId, -money, 1);
+                applyDelta(toId, money, 1);
+            } else {
+                // 일부만 변경되었다. 어느 쪽인지 모르므로 다음 조회 때 다시 읽는다.
+                identityMap.remove(fromId);
+                identityMap.remove(toId);
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public Stream<Member> streamAll() {
+        return delegate.streamAll();
+    }
+
+    @Override
+    public void forEachMember(Consumer<Member> action) {
+        delegate.forEachMember(action);
+    }
+
+    @Override
+    public List<Member> findPageAfter(String lastMemberId, int limit) {
+        return delegate.findPageAfter(lastMemberId, limit);
+    }
+
+    @Override
+    public List<Member> findPageBefore(String lastMemberId, int limit) {
+        return delegate.findPageBefore(lastMemberId, limit);
+    }
+
+    private void applyDelta(String memberId, int delta, int count) {
+        Member member = managed(memberId);
+        if (member != null && count > 0) {
+            member.setMoney(member.getMoney() + delta);
+            member.setVersion(member.getVersion() + 1);
+        }
+    }
+
+    private Member managed(String memberId) {
+        Map<String, Member> identityMap = identityMap();
+        return identityMap == null ? null : identityMap.get(memberId);
+    }
+
+    // 현재 트랜잭션의 identity map. 트랜잭션이 없으면 null
+    private Map<String, Member> identityMap() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()
+                || !TransactionSynchronizationManager.isActualTransactionActive()) {
+            return null;
+        }
+        IdentityMapHolder holder = (IdentityMapHolder) TransactionSynchronizationManager.getResource(this);
+        if (holder == null) {
+            holder = new IdentityMapHolder();
+            holder.setSynchronizedWithTransaction(true);
+            TransactionSynchronizationManager.bindResource(this, holder);
+            // 트랜잭션이 끝나면 unbind, 중첩 트랜잭션(REQUIRES_NEW)에서는 suspend/resume을 처리해준다.
+            TransactionSynchronizationManager.registerSynchronization(new ResourceHolderSynchronization<>(holder, this));
+        }
+        return holder.members;
+    }
+
+    private static class IdentityMapHolder extends ResourceHolderSupport {
+        private final Map<String, Member> members = new HashMap<>();
+
+        @Override
+        public void clear() {
+            super.clear();
+            members.clear();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package hello.jdbc.repository.cache;
+
+import hello.jdbc.domain.Member;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+*   크기 제한(LRU) + TTL 회원 캐시
+*   - maxSize를 넘으면 가장 오래 사용하지 않은 회원부터 버린다.
+*   - 저장한 지 ttl이 지난 회원은 조회 시점에 버린다.
+*   - Member는 변경 가능한 객체라서 넣을 때와 꺼낼 때 복사한다.
+* */
+public class MemberCache {
+    private final long ttlNanos;
+    private final LinkedHashMap<String, Entry> entries;
+    // invalidate 될 때마다 증가한다. DB 조회 도중에 무효화가 있었는지 확인하는 용도
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public MemberCache(int maxSize, Duration ttl) {
+        this.ttlNanos = ttl.toNanos();
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public Member get(String memberId) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(memberId);
+            if (entry != null && System.nanoTime() - entry.loadedAt > ttlNanos) {
+                entries.remove(memberId);
+                evictions.increment();
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return copy(entry.member);
+    }
+
+    // DB 조회를 시작하기 전에 받아두고 putIfValid()에 넘긴다.
+    public long stamp() {
+        return invalidations.get();
+    }
+
+    /*
+    *   조회하는 동안 다른 스레드가 무효화를 했다면 방금 읽은 값이 이미 오래된 값일 수 있으므로 넣지 않는다.
+    *   (캐시 채우기가 조금 덜 되는 대신 갱신된 값을 옛날 값으로 덮어쓰는 일이 없다.)
+    * */
+    public void putIfValid(Member member, long stamp) {
+        synchronized (this) {
+            if (invalidations.get() != stamp) {
+                return;
+            }
+            entries.put(member.getMemberId(), new Entry(copy(member), System.nanoTime()));
+        }
+    }
+
+    public void invalidate(String memberId) {
+        synchronized (this) {
+            invalidations.incrementAndGet();
+            entries.remove(memberId);
+        }
+    }
+
+    public void invalidateAll(Collection<String> memberIds) {
+        synchronized (this) {
+            invalidations.incrementAndGet();
+            for (String memberId : memberIds) {
+                entries.remove(memberId);
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        invalidations.incrementAndGet();
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    static Member copy(Member member) {
+        Member copy = new Member(member.getMemberId(), member.getMoney());
+        copy.setVersion(member.getVersion());
+        return copy;
+    }
+
+    private static final class Entry {
+        private final Member member;
+        private final long loadedAt;
+
+        private Entry(Member member, long loadedAt) {
+            this.member = member;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
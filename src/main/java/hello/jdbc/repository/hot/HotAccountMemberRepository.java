@@ -0,0 +1,387 @@
+package hello.jdbc.repository.hot;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepository;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/*
+*   인기 회원(hot account) 분할 잔액 데코레이터
+*   수수료 계좌, 가맹점처럼 입금이 몰리는 회원은 member 행 하나에 update가 줄을 선다.
+*   markHot()으로 지정한 회원은 잔액을 member_stripe 테이블의 N개 행으로 나눠서 관리한다.
+*
+*   잔액 = member.money(기본 행) + sum(member_stripe.money)
+*   - 입금 : 무작위 stripe 행 하나에 더한다. 동시에 들어온 입금이 서로 다른 행을 잠그므로 거의 기다리지 않는다.
+*   - 출금 : 기본 행에서 먼저 뺀다. 부족하면 stripe 행의 금액을 기본 행으로 모은 뒤 다시 뺀다.
+*     모으는 동안 stripe 행에 락이 걸리므로 출금은 드물다고 가정한다.
+*   - 조회 : 기본 행에 stripe 합계를 더한 값을 SQL 한번으로 읽어서 돌려준다.
+*   인기 회원이 아니면 delegate를 그대로 호출한다.
+*
+*   여러 SQL로 나뉘는 작업은 TransactionTemplate(REQUIRED)으로 묶는다.
+*   호출하는 쪽 트랜잭션이 같은 DataSource를 쓰면 그 트랜잭션에 참여하고, 없으면 새로 시작한다.
+*
+*   주의
+*   - update, updateIfVersion(절대 금액)은 stripe 행을 잠그고 기본 행 = 금액 - stripe 합계로 바꾼다.
+*     stripe 입금은 version을 올리지 않기 때문에 낙관적 락은 기본 행 변경만 감지한다. 인기 회원은 증감 API를 쓰자.
+*   - findByIdForUpdate는 기본 행과 stripe 행을 모두 잠근다. 커밋까지 stripe 입금도 기다리므로 읽은 잔액으로 update 해도 입금이 사라지지 않는다.
+*   - 인기 회원 목록은 생성 시점에 member_stripe에서 읽고 이후에는 이 인스턴스가 관리한다. (JVM 하나 기준)
+* */
+public class HotAccountMemberRepository implements MemberRepository {
+    public static final int DEFAULT_STRIPES = 8;
+    private static final String SELECT_BALANCE = "select m.version," +
+            " m.money + coalesce((select sum(s.money) from member_stripe s where s.member_id = m.member_id), 0) as money" +
+            " from member m where m.member_id = ?";
+
+    private final MemberRepository delegate;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate txTemplate;
+    private final int stripes;
+    // 인기 회원 id -> stripe 행 수
+    private final Map<String, Integer> hotAccounts = new ConcurrentHashMap<>();
+    // unmarkHot 중인 회원. stripe 행이 아직 남아 있으므로 조회할 때 stripe를 더한다.
+    private final Set<String> folding = ConcurrentHashMap.newKeySet();
+
+    public HotAccountMemberRepository(MemberRepository delegate, DataSource dataSource) {
+        this(delegate, dataSource, DEFAULT_STRIPES);
+    }
+
+    public HotAccountMemberRepository(MemberRepository delegate, DataSource dataSource, int stripes) {
+        this.delegate = delegate;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.txTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        this.stripes = stripes;
+        jdbcTemplate.query("select member_id, count(*) from member_stripe group by member_id",
+                rs -> {
+                    hotAccounts.put(rs.getString(1), rs.getInt(2));
+                });
+    }
+
+    public boolean isHot(String memberId) {
+        return hotAccounts.containsKey(memberId);
+    }
+
+    // 회원의 잔액을 stripe로 나눠서 관리하기 시작한다. 기존 잔액은 기본 행에 그대로 둔다.
+    public void markHot(String memberId) {
+        if (isHot(memberId)) {
+            return;
+        }
+        inTransaction(() -> {
+            delegate.findByIdForUpdate(memberId);
+            List<Object[]> rows = new ArrayList<>(stripes);
+            for (int i = 0; i < stripes; i++) {
+                rows.add(new Object[]{memberId, i});
+            }
+            jdbcTemplate.batchUpdate("insert into member_stripe(member_id, stripe, money) values(?, ?, 0)", rows);
+            return null;
+        });
+        hotAccounts.put(memberId, stripes);
+    }
+
+    /*
+    *   stripe 잔액을 기본 행으로 모두 모으고 stripe 행을 지운다.
+    *   먼저 인기 회원에서 빼서 새 입금이 기본 행으로 가게 한 뒤, stripe 행을 잠그고 잠근 금액만 옮기고 그 행을 지운다.
+    *   그 사이에 stripe에 들어오려던 입금은 행이 잠겨 있거나 이미 지워졌으므로 기본 행으로 다시 보낸다. (credit 참고)
+    * */
+    public void unmarkHot(String memberId) {
+        if (hotAccounts.remove(memberId) == null) {
+            return;
+        }
+        folding.add(memberId);
+        try {
+            inTransaction(() -> {
+                foldAndDrop(memberId, true);
+                return null;
+            });
+        } finally {
+            folding.remove(memberId);
+        }
+    }
+
+    @Override
+    public Member save(Member member) {
+        return delegate.save(member);
+    }
+
+    @Override
+    public void saveAll(Collection<Member> members) {
+        delegate.saveAll(members);
+    }
+
+    @Override
+    public Member findById(String memberId) {
+        return withStripes(delegate.findById(memberId));
+    }
+
+    // 기본 행을 잠근 뒤 stripe 행도 잠근다. (출금, sweep과 같은 기본 행 -> stripe 순서)
+    @Override
+    public Member findByIdForUpdate(String memberId) {
+        Member member = delegate.findByIdForUpdate(memberId);
+        if (isHot(memberId) || folding.contains(memberId)) {
+            member.setMoney(member.getMoney() + lockedStripeSum(memberId));
+        }
+        return member;
+    }
+
+    @Override
+    public Map<String, Member> findAllByIds(Collection<String> memberIds) {
+        Map<String, Member> result = delegate.findAllByIds(memberIds);
+        for (Member member : result.values()) {
+            withStripes(member);
+        }
+        return result;
+    }
+
+    @Override
+    public void update(String memberId, int money) {
+        if (!isHot(memberId)) {
+            delegate.update(memberId, money);
+            return;
+        }
+        inTransaction(() -> {
+            delegate.update(memberId, money - lockedStripeSum(memberId));
+            return null;
+        });
+    }
+
+    @Override
+    public int updateIfVersion(String memberId, int money, long expectedVersion) {
+        if (!isHot(memberId)) {
+            return delegate.updateIfVersion(memberId, money, expectedVersion);
+        }
+        return inTransaction(() -> delegate.updateIfVersion(memberId, money - lockedStripeSum(memberId), expectedVersion));
+    }
+
+    @Override
+    public int[] updateAll(Map<String, Integer> moneyByMemberId) {
+        if (!containsHot(moneyByMemberId.keySet())) {
+            return delegate.updateAll(moneyByMemberId);
+        }
+        return inTransaction(() -> {
+            int[] counts = new int[moneyByMemberId.size()];
+            int i = 0;
+            for (Map.Entry<String, Integer> entry : moneyByMemberId.entrySet()) {
+                counts[i++] = updateOne(entry.getKey(), entry.getValue());
+            }
+            return counts;
+        });
+    }
+
+    @Override
+    public void delete(String memberId) {
+        if (!isHot(memberId)) {
+            delegate.delete(memberId);
+            return;
+        }
+        hotAccounts.remove(memberId);
+        inTransaction(() -> {
+            foldAndDrop(memberId, false);
+            delegate.delete(memberId);
+            return null;
+        });
+    }
+
+    @Override
+    public int addMoney(String memberId, int delta) {
+        if (isHot(memberId) && delta > 0) {
+            return credit(memberId, delta);
+        }
+        return delegate.addMoney(memberId, delta);
+    }
+
+    @Override
+    public int addMoneyIfSufficient(String memberId, int delta) {
+        if (!isHot(memberId)) {
+            return delegate.addMoneyIfSufficient(memberId, delta);
+        }
+        return delta >= 0 ? credit(memberId, delta) : debit(memberId, -delta);
+    }
+
+    @Override
+    public int[] addMoneyAll(Map<String, Integer> deltaByMemberId) {
+        if (!containsHot(deltaByMemberId.keySet())) {
+            return delegate.addMoneyAll(deltaByMemberId);
+        }
+        // 인기 회원은 한 건씩, 나머지는 배치로 보내고 결과를 입력 순서대로 합친다.
+        return inTransaction(() -> {
+            Map<String, Integer> normal = new LinkedHashMap<>();
+            for (Map.Entry<String, Integer> entry : deltaByMemberId.entrySet()) {
+                if (!isHot(entry.getKey())) {
+                    normal.put(entry.getKey(), entry.getValue());
+                }
+            }
+            int[] normalCounts = normal.isEmpty() ? new int[0] : delegate.addMoneyAll(normal);
+            int[] counts = new int[deltaByMemberId.size()];
+            int i = 0;
+            int n = 0;
+            for (Map.Entry<String, Integer> entry : deltaByMemberId.entrySet()) {
+                counts[i++] = isHot(entry.getKey())
+                        ? addMoneyIfSufficient(entry.getKey(), entry.getValue())
+                        : normalCounts[n++];
+            }
+            return counts;
+        });
+    }
+
+    @Override
+    public int transferMoney(String fromId, String toId, int money) {
+        if (!isHot(fromId) && !isHot(toId)) {
+            return delegate.transferMoney(fromId, toId, money);
+        }
+        // 다른 구현과 같이 잔액이 부족하면 입금도 하지 않고 0을 돌려준다.
+        return inTransaction(() -> {
+            if (addMoneyIfSufficient(fromId, -money) == 0) {
+                return 0;
+            }
+            return 1 + addMoney(toId, money);
+        });
+    }
+
+    @Override
+    public Stream<Member> streamAll() {
+        return delegate.streamAll().map(this::withStripes);
+    }
+
+    @Override
+    public void forEachMember(Consumer<Member> action) {
+        delegate.forEachMember(member -> action.accept(withStripes(member)));
+    }
+
+    @Override
+    public List<Member> findPageAfter(String lastMemberId, int limit) {
+        List<Member> page = delegate.findPageAfter(lastMemberId, limit);
+        page.forEach(this::withStripes);
+        return page;
+    }
+
+    @Override
+    public List<Member> findPageBefore(String lastMemberId, int limit) {
+        List<Member> page = delegate.findPageBefore(lastMemberId, limit);
+        page.forEach(this::withStripes);
+        return page;
+    }
+
+    private int updateOne(String memberId, int money) {
+        if (!isHot(memberId)) {
+            return delegate.updateAll(Map.of(memberId, money))[0];
+        }
+        return delegate.updateAll(Map.of(memberId, money - lockedStripeSum(memberId)))[0];
+    }
+
+    /*
+    *   무작위 stripe 행 하나에 더한다.
+    *   unmarkHot, delete로 stripe 행이 지워졌으면 0이 나오므로 기본 행에 더한다.
+    * */
+    private int credit(String memberId, int money) {
+        int stripe = ThreadLocalRandom.current().nextInt(hotAccounts.getOrDefault(memberId, stripes));
+        int count = jdbcTemplate.update("update member_stripe set money = money + ? where member_id=? and stripe=?",
+                money, memberId, stripe);
+        return count > 0 ? count : delegate.addMoney(memberId, money);
+    }
+
+    // 기본 행에서 빼고, 부족하면 stripe 잔액을 기본 행으로 모은 뒤 다시 시도한다.
+    private int debit(String memberId, int money) {
+        return inTransaction(() -> {
+            int count = delegate.addMoneyIfSufficient(memberId, -money);
+            if (count == 0 && sweep(memberId) > 0) {
+                count = delegate.addMoneyIfSufficient(memberId, -money);
+            }
+            return count;
+        });
+    }
+
+    /*
+    *   stripe 잔액을 기본 행으로 옮긴다. 반환값 : 옮긴 금액
+    *   읽은 금액 이상일 때만 빼기 때문에 그 사이에 들어온 입금은 stripe에 그대로 남는다.
+    * */
+    private int sweep(String memberId) {
+        List<int[]> rows = jdbcTemplate.query("select stripe, money from member_stripe where member_id=? and money > 0",
+                (rs, rowNum) -> new int[]{rs.getInt(1), rs.getInt(2)}, memberId);
+        int moved = 0;
+        for (int[] row : rows) {
+            int count = jdbcTemplate.update(
+                    "update member_stripe set money = money - ? where member_id=? and stripe=? and money >= ?",
+                    row[1], memberId, row[0], row[1]);
+            if (count > 0) {
+                moved += row[1];
+            }
+        }
+        if (moved > 0) {
+            delegate.addMoney(memberId, moved);
+        }
+        return moved;
+    }
+
+    /*
+    *   stripe 행을 잠그고(for update) 합계를 기본 행으로 옮긴 뒤 잠근 행만 지운다. fold가 false면 옮기지 않고 지운다.
+    *   잠근 행은 커밋까지 금액이 바뀌지 않으므로 옮긴 금액과 지운 금액이 같다.
+    * */
+    private void foldAndDrop(String memberId, boolean fold) {
+        List<int[]> rows = jdbcTemplate.query("select stripe, money from member_stripe where member_id=? for update",
+                (rs, rowNum) -> new int[]{rs.getInt(1), rs.getInt(2)}, memberId);
+        int total = 0;
+        List<Object[]> locked = new ArrayList<>(rows.size());
+        for (int[] row : rows) {
+            total += row[1];
+            locked.add(new Object[]{memberId, row[0]});
+        }
+        if (fold && total != 0) {
+            delegate.addMoney(memberId, total);
+        }
+        jdbcTemplate.batchUpdate("delete from member_stripe where member_id=? and stripe=?", locked);
+    }
+
+    // stripe 행을 잠그고(for update) 합계를 구한다. 커밋까지 입금, 출금, sweep이 stripe를 바꾸지 못한다.
+    private int lockedStripeSum(String memberId) {
+        List<Integer> amounts = jdbcTemplate.queryForList(
+                "select money from member_stripe where member_id=? for update", Integer.class, memberId);
+        int sum = 0;
+        for (Integer amount : amounts) {
+            sum += amount;
+        }
+        return sum;
+    }
+
+    /*
+    *   기본 행과 stripe 합계를 SQL 한번으로 읽는다.
+    *   따로 읽으면 그 사이에 sweep, 출금이 금액을 옮겨서 잔액이 많거나 적게 보일 수 있다.
+    * */
+    private Member withStripes(Member member) {
+        if (isHot(member.getMemberId()) || folding.contains(member.getMemberId())) {
+            jdbcTemplate.query(SELECT_BALANCE, rs -> {
+                member.setMoney(rs.getInt("money"));
+                member.setVersion(rs.getLong("version"));
+            }, member.getMemberId());
+        }
+        return member;
+    }
+
+    private boolean containsHot(Collection<String> memberIds) {
+        if (hotAccounts.isEmpty()) {
+            return false;
+        }
+        for (String memberId : memberIds) {
+            if (isHot(memberId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private <T> T inTransaction(Supplier<T> action) {
+        return txTemplate.execute(status -> action.get());
+    }
+}
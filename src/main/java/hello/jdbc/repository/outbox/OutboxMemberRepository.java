@@ -0,0 +1,201 @@
+package hello.jdbc.repository.outbox;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.domain.MemberChangeEvent.Type;
+import hello.jdbc.repository.MemberRepository;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/*
+*   트랜잭셔널 아웃박스 데코레이터
+*   회원을 변경하면 같은 트랜잭션 안에서 member_outbox에 변경 이벤트를 insert 한다.
+*   변경이 롤백되면 이벤트도 사라지고, 커밋되면 이벤트도 반드시 남는다. (OutboxRelay가 꺼내서 보낸다.)
+*
+*   - 이벤트는 insert ... select로 변경 직후의 member 행(money, version)을 그대로 복사한다. (SQL 한번)
+*     delete는 member 행을 잠그고(for update) 지우기 전에 복사한다. version은 마지막 변경보다 1 큰 값으로 남긴다.
+*     (version으로 중복을 거르는 소비자가 DELETE를 이미 받은 이벤트로 버리지 않도록)
+*   - 변경된 행이 없으면(반환값 0) 이벤트를 남기지 않는다. 배치 API는 결과가 1 이상인 회원만 모아서 배치 insert 한다.
+*   - 이벤트는 항상 member 행을 잠근 뒤(변경 또는 for update) insert 한다.
+*     같은 회원의 변경은 행 락 때문에 커밋 순서대로 outbox_id가 커진다. -> 회원별 이벤트 순서가 보장된다.
+*
+*   delegate는 DataSourceUtils로 커넥션을 얻는 구현(V4_1, V4_2, V5)이어야 같은 트랜잭션에 참여한다.
+*   잔액을 member.money 한 곳에 저장하는 구현 기준이다. (원장, 분할 잔액 데코레이터 위에 두면 스냅샷 금액이 나간다.)
+* */
+public class OutboxMemberRepository implements MemberRepository {
+    private static final String INSERT_EVENT = "insert into member_outbox(member_id, event_type, money, version)" +
+            " select member_id, ?, money, version from member where member_id = ?";
+    private static final String INSERT_DELETE_EVENT = "insert into member_outbox(member_id, event_type, money, version)" +
+            " select member_id, ?, money, version + 1 from member where member_id = ?";
+
+    private final MemberRepository delegate;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate txTemplate;
+
+    public OutboxMemberRepository(MemberRepository delegate, DataSource dataSource) {
+        this.delegate = delegate;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.txTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+    }
+
+    @Override
+    public Member save(Member member) {
+        return inTransaction(() -> {
+            Member saved = delegate.save(member);
+            publish(Type.SAVE, member.getMemberId());
+            return saved;
+        });
+    }
+
+    @Override
+    public void saveAll(Collection<Member> members) {
+        inTransaction(() -> {
+            delegate.saveAll(members);
+            List<String> memberIds = new ArrayList<>(members.size());
+            for (Member member : members) {
+                memberIds.add(member.getMemberId());
+            }
+            publishAll(Type.SAVE, memberIds);
+            return null;
+        });
+    }
+
+    @Override
+    public Member findById(String memberId) {
+        return delegate.findById(memberId);
+    }
+
+    @Override
+    public Member findByIdForUpdate(String memberId) {
+        return delegate.findByIdForUpdate(memberId);
+    }
+
+    @Override
+    public Map<String, Member> findAllByIds(Collection<String> memberIds) {
+        return delegate.findAllByIds(memberIds);
+    }
+
+    @Override
+    public void update(String memberId, int money) {
+        inTransaction(() -> {
+            delegate.update(memberId, money);
+            publish(Type.UPDATE, memberId);
+            return null;
+        });
+    }
+
+    @Override
+    public int updateIfVersion(String memberId, int money, long expectedVersion) {
+        return inTransaction(() -> publishIfChanged(delegate.updateIfVersion(memberId, money, expectedVersion), memberId));
+    }
+
+    @Override
+    public int[] updateAll(Map<String, Integer> moneyByMemberId) {
+        return inTransaction(() -> publishIfChanged(delegate.updateAll(moneyByMemberId), moneyByMemberId));
+    }
+
+    @Override
+    public void delete(String memberId) {
+        inTransaction(() -> {
+            // 먼저 잠가야 커밋 전인 다른 변경의 이벤트가 DELETE 뒤에 끼어들지 않는다.
+            jdbcTemplate.queryForList("select member_id from member where member_id = ? for update", String.class, memberId);
+            jdbcTemplate.update(INSERT_DELETE_EVENT, Type.DELETE.name(), memberId);
+            delegate.delete(memberId);
+            return null;
+        });
+    }
+
+    @Override
+    public int addMoney(String memberId, int delta) {
+        return inTransaction(() -> publishIfChanged(delegate.addMoney(memberId, delta), memberId));
+    }
+
+    @Override
+    public int addMoneyIfSufficient(String memberId, int delta) {
+        return inTransaction(() -> publishIfChanged(delegate.addMoneyIfSufficient(memberId, delta), memberId));
+    }
+
+    @Override
+    public int[] addMoneyAll(Map<String, Integer> deltaByMemberId) {
+        return inTransaction(() -> publishIfChanged(delegate.addMoneyAll(deltaByMemberId), deltaByMemberId));
+    }
+
+    @Override
+    public int transferMoney(String fromId, String toId, int money) {
+        return inTransaction(() -> {
+            int count = delegate.transferMoney(fromId, toId, money);
+            // 2가 아니면 호출자가 롤백하므로 이벤트도 같이 사라진다.
+            if (count > 0) {
+                publishAll(Type.UPDATE, List.of(fromId, toId));
+            }
+            return count;
+        });
+    }
+
+    @Override
+    public Stream<Member> streamAll() {
+        return delegate.streamAll();
+    }
+
+    @Override
+    public void forEachMember(Consumer<Member> action) {
+        delegate.forEachMember(action);
+    }
+
+    @Override
+    public List<Member> findPageAfter(String lastMemberId, int limit) {
+        return delegate.findPageAfter(lastMemberId, limit);
+    }
+
+    @Override
+    public List<Member> findPageBefore(String lastMemberId, int limit) {
+        return delegate.findPageBefore(lastMemberId, limit);
+    }
+
+    private int publishIfChanged(int count, String memberId) {
+        if (count > 0) {
+            publish(Type.UPDATE, memberId);
+        }
+        return count;
+    }
+
+    // counts는 keys의 entrySet 순서와 같다.
+    private int[] publishIfChanged(int[] counts, Map<String, Integer> keys) {
+        List<String> changed = new ArrayList<>(counts.length);
+        int i = 0;
+        for (String memberId : keys.keySet()) {
+            if (counts[i++] > 0) {
+                changed.add(memberId);
+            }
+        }
+        publishAll(Type.UPDATE, changed);
+        return counts;
+    }
+
+    private void publish(Type type, String memberId) {
+        jdbcTemplate.update(INSERT_EVENT, type.name(), memberId);
+    }
+
+    private void publishAll(Type type, List<String> memberIds) {
+        if (memberIds.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(INSERT_EVENT, memberIds, MemberRepository.DEFAULT_BATCH_SIZE, (ps, memberId) -> {
+            ps.setString(1, type.name());
+            ps.setString(2, memberId);
+        });
+    }
+
+    private <T> T inTransaction(Supplier<T> action) {
+        return txTemplate.execute(status -> action.get());
+    }
+}
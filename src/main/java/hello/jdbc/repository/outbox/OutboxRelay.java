@@ -0,0 +1,126 @@
+package hello.jdbc.repository.outbox;
+
+import hello.jdbc.domain.MemberChangeEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+*   아웃박스 전달기
+*   member_outbox를 outbox_id(PK) 키셋 범위로 batchSize개씩 읽어서 OutboxSink로 보내고, 보낸 행을 배치로 지운다.
+*   where outbox_id > ? order by outbox_id limit ? 는 PK 인덱스에서 바로 시작 위치를 찾는다. (전체 스캔, 비교 작업이 없다.)
+*
+*   - 한 번의 drainOnce()는 outbox_id 0부터 끝까지 페이지를 넘기며 보낸다.
+*     보낸 행은 지우기 때문에 다음 drainOnce()도 남은 행 중 가장 작은 id부터 시작한다.
+*   - 늦게 커밋된 트랜잭션의 작은 id는 이번에 건너뛰어도 지워지지 않고 남아 있다가 다음 drainOnce()에 보내진다.
+*   - 읽은 outbox_id만 정확히 지운다. (범위 delete를 하면 읽은 뒤에 커밋된 행까지 지워질 수 있다.)
+*   - sink가 예외를 던지면 이번 drainOnce()를 멈추고 다음 주기에 같은 이벤트부터 다시 보낸다.
+*
+*   relay는 하나만 실행한다고 가정한다. (여러 개면 같은 이벤트를 중복으로 보낸다.)
+* */
+@Slf4j
+public class OutboxRelay implements AutoCloseable {
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    public static final Duration DEFAULT_INTERVAL = Duration.ofMillis(200);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final OutboxSink sink;
+    private final int batchSize;
+    private final Duration interval;
+    private final ScheduledExecutorService scheduler;
+    private final LongAdder relayed = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    public OutboxRelay(DataSource dataSource, OutboxSink sink) {
+        this(dataSource, sink, DEFAULT_BATCH_SIZE, DEFAULT_INTERVAL);
+    }
+
+    public OutboxRelay(DataSource dataSource, OutboxSink sink, int batchSize, Duration interval) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.sink = sink;
+        this.batchSize = batchSize;
+        this.interval = interval;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "outbox-relay");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        long millis = interval.toMillis();
+        scheduler.scheduleWithFixedDelay(this::drainQuietly, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    public long getRelayedCount() {
+        return relayed.sum();
+    }
+
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    /*
+    *   지금 보이는 이벤트를 모두 보낸다. 반환값 : 보낸 이벤트 수
+    *   sink 예외는 그대로 던진다. (그 전에 보낸 페이지는 이미 지워졌다.)
+    * */
+    public int drainOnce() {
+        int sent = 0;
+        long lastId = 0;
+        while (true) {
+            List<MemberChangeEvent> events = jdbcTemplate.query(
+                    "select outbox_id, member_id, event_type, money, version from member_outbox" +
+                            " where outbox_id > ? order by outbox_id limit ?",
+                    eventRowMapper(), lastId, batchSize);
+            if (events.isEmpty()) {
+                return sent;
+            }
+            sink.send(events);
+            jdbcTemplate.batchUpdate("delete from member_outbox where outbox_id = ?", events, batchSize,
+                    (ps, event) -> ps.setLong(1, event.getOutboxId()));
+            sent += events.size();
+            relayed.add(events.size());
+            if (events.size() < batchSize) {
+                return sent;
+            }
+            lastId = events.get(events.size() - 1).getOutboxId();
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(interval.toMillis() + 10_000, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drainQuietly() {
+        try {
+            drainOnce();
+        } catch (RuntimeException e) {
+            // 예외로 끝나면 스케줄이 멈추기 때문에 잡아서 로그만 남긴다.
+            failures.increment();
+            log.warn("outbox relay failed", e);
+        }
+    }
+
+    private RowMapper<MemberChangeEvent> eventRowMapper() {
+        return (rs, rowNum) -> new MemberChangeEvent(
+                rs.getLong("outbox_id"),
+                rs.getString("member_id"),
+                MemberChangeEvent.Type.valueOf(rs.getString("event_type")),
+                rs.getInt("money"),
+                rs.getLong("version"));
+    }
+}
@@ -0,0 +1,16 @@
+package hello.jdbc.repository.outbox;
+
+import hello.jdbc.domain.MemberChangeEvent;
+
+import java.util.List;
+
+/*
+*   OutboxRelay가 꺼낸 이벤트를 받는 곳 (메시지 브로커 전송, 캐시 무효화 등)
+*   events는 outbox_id 오름차순이다.
+*   정상 반환하면 전송된 것으로 보고 outbox에서 지운다. 예외를 던지면 지우지 않고 다음에 같은 이벤트부터 다시 보낸다.
+*   (최소 한번 전달. 같은 이벤트가 다시 올 수 있으므로 받는 쪽은 memberId, version으로 중복을 걸러야 한다.)
+* */
+@FunctionalInterface
+public interface OutboxSink {
+    void send(List<MemberChangeEvent> events);
+}
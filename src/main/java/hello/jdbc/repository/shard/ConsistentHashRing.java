@@ -0,0 +1,55 @@
+package hello.jdbc.repository.shard;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+*   일관된 해시(consistent hashing) 링
+*   샤드마다 가상 노드 virtualNodes개를 링(64비트 해시 공간)에 올리고,
+*   키는 자기 해시 이상인 첫 가상 노드의 샤드로 간다. (끝을 넘으면 처음으로 돌아간다.)
+*   샤드를 하나 늘리면 약 1/N의 키만 옮겨진다. (해시 % N은 거의 모든 키가 옮겨진다.)
+*
+*   해시는 JVM, 실행마다 같아야 하므로 String.hashCode 대신 UTF-8 바이트의 FNV-1a 64비트에 비트 섞기를 더해서 쓴다.
+*   생성 후 변경하지 않으므로 여러 스레드에서 읽어도 안전하다.
+* */
+final class ConsistentHashRing {
+    private final TreeMap<Long, Integer> ring = new TreeMap<>();
+    private final int shardCount;
+
+    ConsistentHashRing(int shardCount, int virtualNodes) {
+        if (shardCount <= 0 || virtualNodes <= 0) {
+            throw new IllegalArgumentException("shardCount=" + shardCount + ", virtualNodes=" + virtualNodes);
+        }
+        this.shardCount = shardCount;
+        for (int shard = 0; shard < shardCount; shard++) {
+            for (int v = 0; v < virtualNodes; v++) {
+                ring.put(hash("shard-" + shard + "#" + v), shard);
+            }
+        }
+    }
+
+    int shardCount() {
+        return shardCount;
+    }
+
+    int shardOf(String key) {
+        Map.Entry<Long, Integer> entry = ring.ceilingEntry(hash(key));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        // 짧은 키의 해시가 링 한쪽에 몰리지 않도록 섞는다. (murmur3 fmix64)
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,339 @@
+package hello.jdbc.repository.shard;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepository;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/*
+*   해시 샤딩 MemberRepository
+*   memberId를 일관된 해시(ConsistentHashRing)로 N개의 DataSource(각각 별도 H2 DB) 중 하나에 배정한다.
+*   샤드마다 factory로 만든 MemberRepository(MemberRepositoryV5::new, MemberRepositoryV4_2::new)를 그대로 쓴다.
+*
+*   - 회원 한 명 API : 해당 샤드로 바로 보낸다.
+*   - 여러 회원 조회(findAllByIds), 페이지, forEachMember : 샤드별로 나눠서 병렬로 조회하고 결과를 합친다.
+*     페이지는 샤드마다 limit개를 받아서 member_id 순으로 합친 뒤 limit개만 남긴다. (키셋이라 샤드 수 * limit 행만 읽는다.)
+*   - 여러 회원 변경(saveAll, updateAll, addMoneyAll) : 샤드별로 묶어서 샤드당 배치 한번씩, 호출한 스레드에서 실행하고
+*     반환값은 입력 순서대로 다시 맞춘다.
+*
+*   주의
+*   - 트랜잭션은 샤드 하나(DataSource 하나) 안에서만 유효하다. 샤드를 넘는 작업은 원자적이지 않다.
+*   - transferMoney는 두 회원이 같은 샤드일 때만 지원한다. 다르면 InvalidDataAccessApiUsageException을 던진다.
+*     MemberServiceV4도 한 트랜잭션 매니저(샤드 하나)만 묶을 수 있으므로 샤드 간 이체는 별도 조정(사가 등)이 필요하다.
+*   - 병렬 조회는 별도 스레드와 커넥션에서 실행되므로 호출한 쪽 트랜잭션의 커밋 전 변경은 보이지 않는다.
+*   - 병렬 조회 스레드 풀은 크기 제한이 없다. (중첩 호출이 풀이 비기를 기다리며 멈추지 않도록, 쉬는 스레드는 재사용된다.)
+*   - streamAll은 샤드 순서대로 이어 붙인다. (한번에 샤드 하나의 커넥션만 쓴다.)
+* */
+public class ShardedMemberRepository implements MemberRepository, AutoCloseable {
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+    private static final int FOR_EACH_BUFFER_SIZE = 1000;
+    // forEachMember 큐에서 샤드 하나를 다 읽었다는 표시
+    private static final Object SHARD_DONE = new Object();
+
+    private final List<DataSource> dataSources;
+    private final List<MemberRepository> shards;
+    private final ConsistentHashRing ring;
+    private final ExecutorService fanOutExecutor;
+
+    public ShardedMemberRepository(List<DataSource> dataSources, Function<DataSource, MemberRepository> factory) {
+        this(dataSources, factory, DEFAULT_VIRTUAL_NODES);
+    }
+
+    public ShardedMemberRepository(List<DataSource> dataSources, Function<DataSource, MemberRepository> factory,
+                                   int virtualNodes) {
+        this.dataSources = List.copyOf(dataSources);
+        List<MemberRepository> shards = new ArrayList<>(dataSources.size());
+        for (DataSource dataSource : dataSources) {
+            shards.add(factory.apply(dataSource));
+        }
+        this.shards = List.copyOf(shards);
+        this.ring = new ConsistentHashRing(dataSources.size(), virtualNodes);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.fanOutExecutor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "shard-fan-out-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public int shardCount() {
+        return shards.size();
+    }
+
+    public int shardIndex(String memberId) {
+        return ring.shardOf(memberId);
+    }
+
+    public MemberRepository shard(int index) {
+        return shards.get(index);
+    }
+
+    // 샤드 하나에서 트랜잭션을 쓰려면 이 DataSource로 트랜잭션 매니저를 만든다.
+    public DataSource dataSource(int index) {
+        return dataSources.get(index);
+    }
+
+    @Override
+    public Member save(Member member) {
+        return shardOf(member.getMemberId()).save(member);
+    }
+
+    @Override
+    public Member findById(String memberId) {
+        return shardOf(memberId).findById(memberId);
+    }
+
+    @Override
+    public Member findByIdForUpdate(String memberId) {
+        return shardOf(memberId).findByIdForUpdate(memberId);
+    }
+
+    @Override
+    public void update(String memberId, int money) {
+        shardOf(memberId).update(memberId, money);
+    }
+
+    @Override
+    public int updateIfVersion(String memberId, int money, long expectedVersion) {
+        return shardOf(memberId).updateIfVersion(memberId, money, expectedVersion);
+    }
+
+    @Override
+    public void delete(String memberId) {
+        shardOf(memberId).delete(memberId);
+    }
+
+    @Override
+    public int addMoney(String memberId, int delta) {
+        return shardOf(memberId).addMoney(memberId, delta);
+    }
+
+    @Override
+    public int addMoneyIfSufficient(String memberId, int delta) {
+        return shardOf(memberId).addMoneyIfSufficient(memberId, delta);
+    }
+
+    @Override
+    public int transferMoney(String fromId, String toId, int money) {
+        int shard = shardIndex(fromId);
+        if (shard != shardIndex(toId)) {
+            throw new InvalidDataAccessApiUsageException(
+                    "샤드가 다른 회원 간 이체는 지원하지 않습니다. fromId=" + fromId + ", toId=" + toId);
+        }
+        return shards.get(shard).transferMoney(fromId, toId, money);
+    }
+
+    @Override
+    public void saveAll(Collection<Member> members) {
+        Map<Integer, List<Member>> byShard = new LinkedHashMap<>();
+        for (Member member : members) {
+            byShard.computeIfAbsent(shardIndex(member.getMemberId()), k -> new ArrayList<>()).add(member);
+        }
+        for (Map.Entry<Integer, List<Member>> entry : byShard.entrySet()) {
+            shards.get(entry.getKey()).saveAll(entry.getValue());
+        }
+    }
+
+    @Override
+    public Map<String, Member> findAllByIds(Collection<String> memberIds) {
+        Map<Integer, List<String>> byShard = new HashMap<>();
+        for (String memberId : memberIds) {
+            byShard.computeIfAbsent(shardIndex(memberId), k -> new ArrayList<>()).add(memberId);
+        }
+        Map<String, Member> result = new HashMap<>();
+        for (Map<String, Member> found : fanOut(byShard.keySet(),
+                shard -> shards.get(shard).findAllByIds(byShard.get(shard)))) {
+            result.putAll(found);
+        }
+        return result;
+    }
+
+    @Override
+    public int[] updateAll(Map<String, Integer> moneyByMemberId) {
+        return perShardBatch(moneyByMemberId, MemberRepository::updateAll);
+    }
+
+    @Override
+    public int[] addMoneyAll(Map<String, Integer> deltaByMemberId) {
+        return perShardBatch(deltaByMemberId, MemberRepository::addMoneyAll);
+    }
+
+    @Override
+    public Stream<Member> streamAll() {
+        // flatMap은 샤드 스트림을 다 읽으면 닫는다. 중간에 멈춰도 바깥 스트림을 close() 하면 닫힌다.
+        return shards.stream().flatMap(MemberRepository::streamAll);
+    }
+
+    /*
+    *   샤드를 병렬로 읽어서 크기가 정해진 큐에 넣고, action은 호출한 스레드에서 하나씩 실행한다.
+    *   action 안에서 다른 fan-out 메소드를 호출하거나 호출한 쪽 트랜잭션(스레드에 묶인 커넥션)을 써도 된다.
+    *   큐가 차면 읽는 쪽이 기다린다. (샤드 전체를 메모리에 올리지 않는다.)
+    * */
+    @Override
+    public void forEachMember(Consumer<Member> action) {
+        BlockingQueue<Object> queue = new ArrayBlockingQueue<>(FOR_EACH_BUFFER_SIZE);
+        AtomicBoolean cancelled = new AtomicBoolean();
+        List<CompletableFuture<Void>> readers = new ArrayList<>(shards.size());
+        for (MemberRepository shard : shards) {
+            readers.add(CompletableFuture.runAsync(() -> {
+                try {
+                    shard.forEachMember(member -> put(queue, member, cancelled));
+                } finally {
+                    put(queue, SHARD_DONE, cancelled);
+                }
+            }, fanOutExecutor));
+        }
+        try {
+            int remaining = shards.size();
+            while (remaining > 0) {
+                Object next = queue.take();
+                if (next == SHARD_DONE) {
+                    remaining--;
+                } else {
+                    action.accept((Member) next);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while scanning shards", e);
+        } finally {
+            // action이 실패하면 읽는 스레드를 멈춘다.
+            cancelled.set(true);
+            queue.clear();
+        }
+        join(readers);
+    }
+
+    // 큐가 비기를 기다리며 넣는다. 취소되면 예외로 샤드 조회를 멈춘다. (JdbcTemplate이 ResultSet을 닫는다.)
+    private static void put(BlockingQueue<Object> queue, Object item, AtomicBoolean cancelled) {
+        try {
+            while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+                if (cancelled.get()) {
+                    throw new CancellationException("forEachMember cancelled");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("forEachMember interrupted");
+        }
+    }
+
+    @Override
+    public List<Member> findPageAfter(String lastMemberId, int limit) {
+        return mergePages(fanOut(allShards(), shard -> shards.get(shard).findPageAfter(lastMemberId, limit)),
+                Comparator.comparing(Member::getMemberId), limit);
+    }
+
+    @Override
+    public List<Member> findPageBefore(String lastMemberId, int limit) {
+        return mergePages(fanOut(allShards(), shard -> shards.get(shard).findPageBefore(lastMemberId, limit)),
+                Comparator.comparing(Member::getMemberId).reversed(), limit);
+    }
+
+    @Override
+    public void close() {
+        fanOutExecutor.shutdown();
+    }
+
+    private MemberRepository shardOf(String memberId) {
+        return shards.get(shardIndex(memberId));
+    }
+
+    private List<Integer> allShards() {
+        List<Integer> all = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            all.add(i);
+        }
+        return all;
+    }
+
+    /*
+    *   샤드별 호출을 병렬로 실행하고 결과를 모은다. 샤드가 하나면 호출한 스레드에서 바로 실행한다.
+    *   실패한 샤드가 있으면 그 예외를 그대로 던진다.
+    * */
+    private <T> List<T> fanOut(Collection<Integer> shardIndexes, Function<Integer, T> call) {
+        List<T> results = new ArrayList<>(shardIndexes.size());
+        if (shardIndexes.size() == 1) {
+            results.add(call.apply(shardIndexes.iterator().next()));
+            return results;
+        }
+        List<CompletableFuture<T>> futures = new ArrayList<>(shardIndexes.size());
+        for (Integer shard : shardIndexes) {
+            futures.add(CompletableFuture.supplyAsync(() -> call.apply(shard), fanOutExecutor));
+        }
+        return join(futures);
+    }
+
+    // 모두 기다려서 결과를 모은다. 실패한 작업이 있으면 그 예외를 그대로 던진다.
+    private static <T> List<T> join(List<CompletableFuture<T>> futures) {
+        List<T> results = new ArrayList<>(futures.size());
+        try {
+            for (CompletableFuture<T> future : futures) {
+                results.add(future.join());
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+        return results;
+    }
+
+    private interface ShardBatch {
+        int[] apply(MemberRepository shard, Map<String, Integer> valueByMemberId);
+    }
+
+    // 샤드별로 묶어서 배치 한번씩 실행하고, 결과를 valueByMemberId.entrySet() 순서로 되돌린다.
+    private int[] perShardBatch(Map<String, Integer> valueByMemberId, ShardBatch batch) {
+        Map<Integer, Map<String, Integer>> byShard = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> entry : valueByMemberId.entrySet()) {
+            byShard.computeIfAbsent(shardIndex(entry.getKey()), k -> new LinkedHashMap<>())
+                    .put(entry.getKey(), entry.getValue());
+        }
+        Map<String, Integer> countByMemberId = new HashMap<>();
+        for (Map.Entry<Integer, Map<String, Integer>> entry : byShard.entrySet()) {
+            int[] counts = batch.apply(shards.get(entry.getKey()), entry.getValue());
+            int i = 0;
+            for (String memberId : entry.getValue().keySet()) {
+                countByMemberId.put(memberId, counts[i++]);
+            }
+        }
+        int[] result = new int[valueByMemberId.size()];
+        int i = 0;
+        for (String memberId : valueByMemberId.keySet()) {
+            result[i++] = countByMemberId.get(memberId);
+        }
+        return result;
+    }
+
+    private List<Member> mergePages(List<List<Member>> pages, Comparator<Member> order, int limit) {
+        List<Member> merged = new ArrayList<>();
+        for (List<Member> page : pages) {
+            merged.addAll(page);
+        }
+        merged.sort(order);
+        return merged.size() > limit ? new ArrayList<>(merged.subList(0, limit)) : merged;
+    }
+}
@@ -0,0 +1,339 @@
+package hello.jdbc.repository.uow;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepository;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.JdbcUpdateAffectedIncorrectNumberOfRowsException;
+import org.springframework.transaction.support.ResourceHolderSupport;
+import org.springframework.transaction.support.ResourceHolderSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/*
+*   작업 단위(Unit of Work) 데코레이터 - 변경을 모아뒀다가 커밋 직전에 한번에 반영한다.
+*
+*   트랜잭션 안에서 save, update, delete를 호출하면 DB에 바로 보내지 않고 회원별로 기록만 한다.
+*   - 같은 회원을 여러번 update 하면 마지막 값만 남는다.
+*   - save 후 update 하면 바뀐 금액으로 insert 한번, save 후 delete 하면 아무것도 보내지 않는다.
+*   - delete 후 save 하면 delete와 insert를 둘 다 보낸다. (행이 없었어도 insert로 저장된다.)
+*   커밋 직전(beforeCommit)에 delete, insert(saveAll 배치), update(updateAll 배치) 순서로 내보낸다.
+*   각 단계 안에서는 member_id 순서로 보낸다. 같은 회원들을 건드리는 트랜잭션끼리 같은 순서로 락을 잡으므로 교착상태가 줄어든다.
+*   SQL을 커밋 직전에 몰아서 보내기 때문에 행 락을 잡고 있는 시간과 왕복 횟수가 줄어든다.
+*
+*   주의
+*   - 중복 키 같은 DB 오류가 호출 시점이 아니라 커밋 시점에 발생한다. (커밋이 실패하고 롤백된다.)
+*   - 모아둔 update의 대상 행이 없으면 flush에서 JdbcUpdateAffectedIncorrectNumberOfRowsException을 던진다.
+*   - addMoney, addMoneyAll, updateIfVersion, transferMoney, updateAll, 전체 조회, 페이징은 DB의 현재 값이 필요하므로
+*     그때까지 모아둔 변경을 먼저 내보낸 뒤 delegate를 호출한다.
+*   - update를 모아둔 회원을 조회하면 version을 알기 위해 DB 행은 읽고 금액만 모아둔 값으로 바꿔서 돌려준다.
+*   - 트랜잭션 밖에서는 delegate를 그대로 호출한다.
+* */
+public class UnitOfWorkMemberRepository implements MemberRepository {
+    private final MemberRepository delegate;
+
+    public UnitOfWorkMemberRepository(MemberRepository delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Member save(Member member) {
+        UnitOfWork work = currentWork();
+        if (work == null) {
+            return delegate.save(member);
+        }
+        work.save(member.getMemberId(), member.getMoney());
+        return member;
+    }
+
+    @Override
+    public void saveAll(Collection<Member> members) {
+        UnitOfWork work = currentWork();
+        if (work == null) {
+            delegate.saveAll(members);
+            return;
+        }
+        for (Member member : members) {
+            work.save(member.getMemberId(), member.getMoney());
+        }
+    }
+
+    @Override
+    public void update(String memberId, int money) {
+        UnitOfWork work = currentWork();
+        if (work == null) {
+            delegate.update(memberId, money);
+            return;
+        }
+        work.update(memberId, money);
+    }
+
+    @Override
+    public void delete(String memberId) {
+        UnitOfWork work = currentWork();
+        if (work == null) {
+            delegate.delete(memberId);
+            return;
+        }
+        work.delete(memberId);
+    }
+
+    @Override
+    public Member findById(String memberId) {
+        UnitOfWork work = currentWork();
+        Change change = work == null ? null : work.changes.get(memberId);
+        if (change == null) {
+            return delegate.findById(memberId);
+        }
+        if (change.type == ChangeType.DELETE) {
+            throw new NoSuchElementException("member not found memberId=" + memberId);
+        }
+        if (change.type == ChangeType.INSERT || change.type == ChangeType.REPLACE) {
+            return new Member(memberId, change.money);
+        }
+        return pending(delegate.findById(memberId), change);
+    }
+
+    // 락은 DB 행에 걸어야 하므로 모아둔 변경을 먼저 내보낸다.
+    @Override
+    public Member findByIdForUpdate(String memberId) {
+        flushPending();
+        return delegate.findByIdForUpdate(memberId);
+    }
+
+    @Override
+    public Map<String, Member> findAllByIds(Collection<String> memberIds) {
+        UnitOfWork work = currentWork();
+        if (work == null || work.changes.isEmpty()) {
+            return delegate.findAllByIds(memberIds);
+        }
+        Map<String, Member> result = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String memberId : memberIds) {
+            Change change = work.changes.get(memberId);
+            if (change == null || change.type == ChangeType.UPDATE) {
+                missing.add(memberId);
+            } else if (change.type == ChangeType.INSERT || change.type == ChangeType.REPLACE) {
+                result.put(memberId, new Member(memberId, change.money));
+            }
+        }
+        if (!missing.isEmpty()) {
+            for (Member member : delegate.findAllByIds(missing).values()) {
+                Change change = work.changes.get(member.getMemberId());
+                result.put(member.getMemberId(), change == null ? member : pending(member, change));
+            }
+        }
+        return result;
+    }
+
+    // 아직 보내지 않은 update를 반영한 모습. flush 되면 version이 1 올라간다.
+    private static Member pending(Member member, Change change) {
+        member.setMoney(change.money);
+        member.setVersion(member.getVersion() + 1);
+        return member;
+    }
+
+    @Override
+    public int[] updateAll(Map<String, Integer> moneyByMemberId) {
+        flushPending();
+        return delegate.updateAll(moneyByMemberId);
+    }
+
+    @Override
+    public int updateIfVersion(String memberId, int money, long expectedVersion) {
+        flushPending();
+        return delegate.updateIfVersion(memberId, money, expectedVersion);
+    }
+
+    @Override
+    public int[] addMoneyAll(Map<String, Integer> deltaByMemberId) {
+        flushPending();
+        return delegate.addMoneyAll(deltaByMemberId);
+    }
+
+    @Override
+    public int addMoney(String memberId, int delta) {
+        flushPending();
+        return delegate.addMoney(memberId, delta);
+    }
+
+    @Override
+    public int addMoneyIfSufficient(String memberId, int delta) {
+        flushPending();
+        return delegate.addMoneyIfSufficient(memberId, delta);
+    }
+
+    @Override
+    public int transferMoney(String fromId, String toId, int money) {
+        flushPending();
+        return delegate.transferMoney(fromId, toId, money);
+    }
+
+    @Override
+    public Stream<Member> streamAll() {
+        flushPending();
+        return delegate.streamAll();
+    }
+
+    @Override
+    public void forEachMember(Consumer<Member> action) {
+        flushPending();
+        delegate.forEachMember(action);
+    }
+
+    @Override
+    public List<Member> findPageAfter(String lastMemberId, int limit) {
+        flushPending();
+        return delegate.findPageAfter(lastMemberId, limit);
+    }
+
+    @Override
+    public List<Member> findPageBefore(String lastMemberId, int limit) {
+        flushPending();
+        return delegate.findPageBefore(lastMemberId, limit);
+    }
+
+    private void flushPending() {
+        UnitOfWork work = currentWork();
+        if (work != null) {
+            flush(work);
+        }
+    }
+
+    private void flush(UnitOfWork work) {
+        if (work.changes.isEmpty()) {
+            return;
+        }
+        List<String> deletes = new ArrayList<>();
+        List<Member> inserts = new ArrayList<>();
+        Map<String, Integer> updates = new LinkedHashMap<>();
+        // member_id 순서로 모은다.
+        for (Map.Entry<String, Change> entry : new TreeMap<>(work.changes).entrySet()) {
+            Change change = entry.getValue();
+            switch (change.type) {
+                case DELETE:
+                    deletes.add(entry.getKey());
+                    break;
+                case REPLACE:
+                    deletes.add(entry.getKey());
+                    inserts.add(new Member(entry.getKey(), change.money));
+                    break;
+                case INSERT:
+                    inserts.add(new Member(entry.getKey(), change.money));
+                    break;
+                case UPDATE:
+                    updates.put(entry.getKey(), change.money);
+                    break;
+            }
+        }
+        work.changes.clear();
+        // 삭제 배치 API가 없어서 한 건씩 보낸다. (이체 흐름에서는 거의 없다.)
+        deletes.forEach(delegate::delete);
+        if (!inserts.isEmpty()) {
+            delegate.saveAll(inserts);
+        }
+        if (!updates.isEmpty()) {
+            checkUpdated(updates, delegate.updateAll(updates));
+        }
+    }
+
+    // 모아둔 update가 행을 찾지 못했으면 조용히 사라지지 않도록 커밋을 실패시킨다.
+    private static void checkUpdated(Map<String, Integer> updates, int[] counts) {
+        int i = 0;
+        for (String memberId : updates.keySet()) {
+            int count = counts[i++];
+            if (count != 1 && count != Statement.SUCCESS_NO_INFO) {
+                throw new JdbcUpdateAffectedIncorrectNumberOfRowsException(
+                        "update member set money=? where member_id=" + memberId, 1, count);
+            }
+        }
+    }
+
+    // 현재 트랜잭션의 작업 단위. 트랜잭션이 없으면 null
+    private UnitOfWork currentWork() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()
+                || !TransactionSynchronizationManager.isActualTransactionActive()) {
+            return null;
+        }
+        UnitOfWork work = (UnitOfWork) TransactionSynchronizationManager.getResource(this);
+        if (work == null) {
+            UnitOfWork newWork = new UnitOfWork();
+            newWork.setSynchronizedWithTransaction(true);
+            TransactionSynchronizationManager.bindResource(this, newWork);
+            TransactionSynchronizationManager.registerSynchronization(
+                    new ResourceHolderSynchronization<UnitOfWork, UnitOfWorkMemberRepository>(newWork, this) {
+                        @Override
+                        public void beforeCommit(boolean readOnly) {
+                            // 아직 트랜잭션 커넥션이 묶여있는 시점이라 delegate가 같은 트랜잭션으로 실행된다.
+                            flush(newWork);
+                        }
+                    });
+            work = newWork;
+        }
+        return work;
+    }
+
+    // REPLACE : 삭제 후 다시 저장 (delete + insert)
+    private enum ChangeType {INSERT, UPDATE, DELETE, REPLACE}
+
+    private static final class Change {
+        private final ChangeType type;
+        private final int money;
+
+        private Change(ChangeType type, int money) {
+            this.type = type;
+            this.money = money;
+        }
+    }
+
+    private static class UnitOfWork extends ResourceHolderSupport {
+        private final Map<String, Change> changes = new LinkedHashMap<>();
+
+        private void save(String memberId, int money) {
+            Change change = changes.get(memberId);
+            if (change == null) {
+                changes.put(memberId, new Change(ChangeType.INSERT, money));
+            } else if (change.type == ChangeType.DELETE) {
+                changes.put(memberId, new Change(ChangeType.REPLACE, money));
+            } else {
+                throw new DuplicateKeyException("duplicate memberId=" + memberId);
+            }
+        }
+
+        private void update(String memberId, int money) {
+            Change change = changes.get(memberId);
+            if (change == null || change.type == ChangeType.UPDATE) {
+                changes.put(memberId, new Change(ChangeType.UPDATE, money));
+            } else if (change.type == ChangeType.INSERT || change.type == ChangeType.REPLACE) {
+                changes.put(memberId, new Change(change.type, money));
+            }
+            // 삭제한 회원을 update 하면 DB에서도 0건이므로 무시한다.
+        }
+
+        private void delete(String memberId) {
+            Change change = changes.get(memberId);
+            if (change != null && change.type == ChangeType.INSERT) {
+                changes.remove(memberId);
+            } else {
+                // REPLACE도 결국 삭제만 남는다.
+                changes.put(memberId, new Change(ChangeType.DELETE, 0));
+            }
+        }
+
+        @Override
+        public void clear() {
+            super.clear();
+            changes.clear();
+        }
+    }
+}
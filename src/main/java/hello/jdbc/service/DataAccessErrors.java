@@ -0,0 +1,26 @@
+package hello.jdbc.service;
+
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.transaction.TransactionException;
+
+/*
+*   비동기 반영(저널, 사가 복구)에서 예외를 다시 시도할지 판단한다.
+*   - 다시 시도 : 일시적인 DB 오류(락 타임아웃, 교착상태 등), 복구 가능한 오류, 트랜잭션 시작/커밋 실패, 커넥션 실패
+*   - 다시 시도하지 않음 : 그 밖의 오류 (무결성 위반, 잘못된 SQL 등 같은 입력이면 다시 해도 똑같이 실패한다.)
+*
+*   커넥션 실패(DataAccessResourceFailureException)는 스프링에서 NonTransient로 분류되지만 DB가 다시 뜨면 성공하므로 다시 시도한다.
+* */
+final class DataAccessErrors {
+
+    private DataAccessErrors() {
+    }
+
+    static boolean isRetryable(RuntimeException e) {
+        return e instanceof TransientDataAccessException
+                || e instanceof RecoverableDataAccessException
+                || e instanceof DataAccessResourceFailureException
+                || e instanceof TransactionException;
+    }
+}
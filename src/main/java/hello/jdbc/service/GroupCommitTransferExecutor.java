@@ -0,0 +1,247 @@
+package hello.jdbc.service;
+
+import hello.jdbc.repository.MemberRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+*   그룹 커밋 이체 실행기
+*   accountTransfer는 이체마다 트랜잭션을 하나씩 커밋한다. 디스크 기반 H2에서는 커밋마다 fsync가 일어나서
+*   동시 요청이 많으면 커밋이 처리량의 한계가 된다.
+*
+*   - 호출한 스레드는 이체를 큐에 넣고 CompletableFuture를 받는다.
+*   - 리더 스레드 하나가 큐에서 최대 maxBatchSize개를, 첫 요청 후 최대 maxWait 동안 모아서 트랜잭션 하나로 처리한다.
+*   - 이체마다 세이브포인트를 만들어서 실패한 이체만 세이브포인트로 롤백한다. (다른 이체는 그대로 커밋된다.)
+*   - 커밋이 끝난 뒤에 각 호출자의 future를 완료한다. 커밋 자체가 실패하면 배치 전체가 실패한다.
+*   - 리더 스레드에서 Error(OutOfMemoryError 등)가 나면 그 배치와 큐에 남은 요청을 모두 실패로 완료하고 실행기를 닫는다.
+*     (리더가 죽은 채로 남아서 future가 영원히 완료되지 않는 일이 없도록)
+*
+*   출금, 입금은 accountTransferAtomic과 같이 money = money + ? 증감 SQL을 member_id 순서로 실행한다.
+*   (MemberServiceV4를 호출하면 @Transactional이 바깥 배치 트랜잭션을 rollback-only로 만들기 때문에 직접 호출한다.)
+* */
+@Slf4j
+public class GroupCommitTransferExecutor implements AutoCloseable {
+    public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+    public static final Duration DEFAULT_MAX_WAIT = Duration.ofMillis(2);
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    private final MemberRepository memberRepository;
+    private final TransactionTemplate txTemplate;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final BlockingQueue<TransferRequest> queue = new LinkedBlockingQueue<>();
+    private final Thread leader;
+    private volatile boolean closed;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder transfers = new LongAdder();
+
+    public GroupCommitTransferExecutor(PlatformTransactionManager transactionManager, MemberRepository memberRepository) {
+        this(transactionManager, memberRepository, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_WAIT);
+    }
+
+    public GroupCommitTransferExecutor(PlatformTransactionManager transactionManager, MemberRepository memberRepository,
+                                       int maxBatchSize, Duration maxWait) {
+        this.memberRepository = memberRepository;
+        this.txTemplate = new TransactionTemplate(transactionManager);
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.leader = new Thread(this::run, "group-commit-leader");
+        this.leader.setDaemon(true);
+        this.leader.start();
+    }
+
+    /*
+    *   이체를 큐에 넣는다. 커밋되면 future가 정상 완료되고
+    *   잔액 부족, 없는 회원, 커밋 실패 등은 해당 예외로 완료된다.
+    * */
+    public CompletableFuture<Void> submit(String fromId, String toId, int money) {
+        if (fromId.equals(toId)) {
+            throw new IllegalArgumentException("같은 회원에게 이체할 수 없습니다. memberId=" + fromId);
+        }
+        TransferRequest request = new TransferRequest(fromId, toId, money);
+        if (closed) {
+            throw new IllegalStateException("executor closed");
+        }
+        queue.add(request);
+        // close()와 동시에 들어온 요청이 큐에 남아 영원히 완료되지 않는 일이 없도록 다시 확인한다.
+        if (closed && queue.remove(request)) {
+            throw new IllegalStateException("executor closed");
+        }
+        return request.future;
+    }
+
+    // submit 후 커밋될 때까지 기다린다. 실패하면 원래 예외를 그대로 던진다.
+    public void transfer(String fromId, String toId, int money) {
+        try {
+            submit(fromId, toId, money).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    public long getTransferCount() {
+        return transfers.sum();
+    }
+
+    @Override
+    public void close() {
+        // 리더가 JDBC 호출 중에 인터럽트되지 않도록 플래그만 세운다. (최대 IDLE_POLL_MILLIS 안에 끝난다.)
+        closed = true;
+        try {
+            leader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 처리하지 못한 요청은 실패로 완료한다.
+        failQueued(new IllegalStateException("executor closed"));
+    }
+
+    private void failQueued(RuntimeException e) {
+        TransferRequest request;
+        while ((request = queue.poll()) != null) {
+            request.future.completeExceptionally(e);
+        }
+    }
+
+    private void run() {
+        List<TransferRequest> batch = new ArrayList<>(maxBatchSize);
+        while (!closed) {
+            try {
+                TransferRequest first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (batch.size() < maxBatchSize) {
+                    // 이미 쌓여있는 요청은 기다리지 않고 가져온다.
+                    if (queue.drainTo(batch, maxBatchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    TransferRequest next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // 이미 모은 요청은 처리하고 끝낸다.
+                closed = true;
+            }
+            if (!batch.isEmpty()) {
+                try {
+                    apply(batch);
+                } catch (Throwable t) {
+                    // 이미 완료된 future는 그대로 두고 나머지만 실패로 완료한다.
+                    for (TransferRequest request : batch) {
+                        request.future.completeExceptionally(t);
+                    }
+                    if (t instanceof Error) {
+                        log.error("group commit leader stopped", t);
+                        closed = true;
+                        failQueued(new IllegalStateException("executor stopped", t));
+                        throw (Error) t;
+                    }
+                    log.error("group commit batch failed size={}", batch.size(), t);
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+    }
+
+    private void apply(List<TransferRequest> batch) {
+        List<RuntimeException> errors = new ArrayList<>(batch.size());
+        try {
+            txTemplate.executeWithoutResult(status -> {
+                errors.clear();
+                for (TransferRequest request : batch) {
+                    Object savepoint = status.createSavepoint();
+                    try {
+                        transferAtomic(request.fromId, request.toId, request.money);
+                        status.releaseSavepoint(savepoint);
+                        errors.add(null);
+                    } catch (RuntimeException e) {
+                        status.rollbackToSavepoint(savepoint);
+                        errors.add(e);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            log.warn("group commit failed size={}", batch.size(), e);
+            for (TransferRequest request : batch) {
+                request.future.completeExceptionally(e);
+            }
+            return;
+        }
+        batches.increment();
+        transfers.add(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            RuntimeException error = errors.get(i);
+            if (error == null) {
+                batch.get(i).future.complete(null);
+            } else {
+                batch.get(i).future.completeExceptionally(error);
+            }
+        }
+    }
+
+    private void transferAtomic(String fromId, String toId, int money) {
+        if (fromId.compareTo(toId) < 0) {
+            withdraw(fromId, money);
+            deposit(toId, money);
+        } else {
+            deposit(toId, money);
+            withdraw(fromId, money);
+        }
+    }
+
+    private void withdraw(String memberId, int money) {
+        if (memberRepository.addMoneyIfSufficient(memberId, -money) == 0) {
+            throw new IllegalStateException("잔액 부족 또는 없는 회원 memberId=" + memberId);
+        }
+    }
+
+    private void deposit(String memberId, int money) {
+        if (memberRepository.addMoney(memberId, money) == 0) {
+            throw new NoSuchElementException("member not found memberId=" + memberId);
+        }
+    }
+
+    private static final class TransferRequest {
+        private final String fromId;
+        private final String toId;
+        private final int money;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private TransferRequest(String fromId, String toId, int money) {
+            this.fromId = fromId;
+            this.toId = toId;
+            this.money = money;
+        }
+    }
+}
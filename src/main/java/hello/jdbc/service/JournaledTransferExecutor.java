@@ -0,0 +1,428 @@
+package hello.jdbc.service;
+
+import hello.jdbc.domain.Transfer;
+import hello.jdbc.service.TransferJournal.JournalRecord;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/*
+*   저널 기반 비동기 이체 접수기 (write-ahead journal)
+*   호출한 스레드는 이체를 로컬 저널 파일(TransferJournal, memory-mapped)에 붙여 쓰고 CompletableFuture를 받는다.
+*   DB 커밋을 기다리지 않으므로 소액 결제처럼 건수가 많은 이체의 응답 시간에서 DB 커밋이 빠진다.
+*
+*   - flusher 스레드 : 쌓인 레코드를 force(fsync) 한번으로 디스크에 내리고 그 안에 든 요청의 future를 모두 완료한다. (그룹 fsync)
+*     future가 완료되면 이체는 "접수"된 것이다. 서버가 죽어도 저널에 남아 있다.
+*   - applier 스레드 : fsync된 레코드를 최대 maxBatchSize개씩 읽어서 MemberServiceV4.accountTransferBatch로 반영한다.
+*     배치가 잔액 부족 등으로 실패하면 그 배치만 accountTransferAtomic으로 한 건씩 다시 반영하고
+*     실패한 이체는 거절(rejectionListener)로 넘긴다.
+*   - 반영한 위치(offset)는 transfer_journal 테이블에 이체와 같은 트랜잭션으로 저장한다.
+*     다시 시작하면 이 위치부터 이어서 반영하므로 이체가 두번 반영되지 않는다.
+*   - 일시적인 DB 장애(DataAccessErrors.isRetryable)면 위치를 옮기지 않고 잠시 후 같은 레코드부터 다시 시도한다.
+*     무결성 위반(금액 overflow), 잘못된 SQL처럼 다시 해도 실패하는 오류는 그 이체만 거절하고 넘어간다.
+*
+*   주의
+*   - 접수 후 잔액 부족은 호출자에게 바로 알릴 수 없다. rejectionListener로 따로 처리해야 한다.
+*   - accountTransferBatch는 배치 안의 이체를 회원별 순증감으로 합쳐서 최종 잔액만 검사한다.
+*     그래서 혼자서는 잔액 부족인 이체도 같은 배치의 입금과 합쳐지면 반영될 수 있다. (배치 경계에 따라 결과가 달라진다.)
+*     배치가 실패했을 때만 한 건씩 journal 순서대로 반영하므로, 거절되는 이체는 순서대로 반영했을 때 실패하는 이체다.
+*   - ack 전에 서버가 죽은 이체는 저널에 남았으면 반영되고, 아니면 사라진다. (호출자는 실패로 보고 다시 시도해야 한다.)
+*   - 저널이 가득 차면 applier가 모두 반영할 때까지 submit이 기다린다.
+*   - 저널 파일 하나는 executor 하나만 연다.
+*   - flusher, applier에서 Error(OutOfMemoryError 등)가 나면 실행기를 닫는다. submit은 바로 실패한다.
+*     fsync 전인 요청은 실패로 완료하고, fsync된 레코드는 저널에 남아 다음에 열 때 반영된다.
+* */
+@Slf4j
+public class JournaledTransferExecutor implements AutoCloseable {
+    public static final int DEFAULT_CAPACITY = 64 * 1024 * 1024;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+    private static final long IDLE_POLL_MILLIS = 100;
+    private static final long RETRY_DELAY_MILLIS = 500;
+
+    private final MemberServiceV4 memberService;
+    private final TransactionTemplate txTemplate;
+    private final JdbcTemplate jdbcTemplate;
+    private final String journalName;
+    private final int maxBatchSize;
+    private final TransferJournal journal;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition appended = lock.newCondition();
+    private final Condition synced = lock.newCondition();
+    private final Condition applied = lock.newCondition();
+    private final Deque<PendingAck> pendingAcks = new ArrayDeque<>();
+    private long syncedOffset;
+    private long appliedOffset;
+    private volatile boolean closed;
+
+    private final Thread flusher;
+    private final Thread applier;
+    private volatile BiConsumer<Transfer, RuntimeException> rejectionListener =
+            (transfer, e) -> log.warn("journaled transfer rejected transfer={}", transfer, e);
+
+    private final LongAdder syncs = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder appliedTransfers = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public JournaledTransferExecutor(MemberServiceV4 memberService, PlatformTransactionManager transactionManager,
+                                     DataSource dataSource, Path path) {
+        this(memberService, transactionManager, dataSource, path, DEFAULT_CAPACITY, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /*
+    *   memberService : 트랜잭션 AOP 프록시
+    *   transactionManager : memberService와 같은 DataSource를 쓰는 트랜잭션 매니저 (반영 위치 저장이 같은 트랜잭션에 참여한다.)
+    * */
+    public JournaledTransferExecutor(MemberServiceV4 memberService, PlatformTransactionManager transactionManager,
+                                     DataSource dataSource, Path path, int capacity, int maxBatchSize) {
+        this.memberService = memberService;
+        this.txTemplate = new TransactionTemplate(transactionManager);
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.journalName = path.getFileName().toString();
+        this.maxBatchSize = maxBatchSize;
+
+        this.appliedOffset = loadAppliedOffset();
+        this.journal = TransferJournal.open(path, capacity, appliedOffset);
+        // 열 때 찾은 레코드는 이미 디스크에 있다.
+        this.syncedOffset = journal.end();
+        log.info("journal opened name={} base={} applied={} end={}",
+                journalName, journal.base(), appliedOffset, syncedOffset);
+
+        this.flusher = new Thread(this::runFlusher, "journal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+        this.applier = new Thread(this::runApplier, "journal-applier");
+        this.applier.setDaemon(true);
+        this.applier.start();
+    }
+
+    public void setRejectionListener(BiConsumer<Transfer, RuntimeException> rejectionListener) {
+        this.rejectionListener = rejectionListener;
+    }
+
+    /*
+    *   이체를 저널에 쓴다. fsync가 끝나면 future가 정상 완료된다.
+    *   DB 반영 결과는 future와 상관없다. (잔액 부족은 rejectionListener로 전달된다.)
+    * */
+    public CompletableFuture<Void> submit(String fromId, String toId, int money) {
+        if (fromId.equals(toId)) {
+            throw new IllegalArgumentException("같은 회원에게 이체할 수 없습니다. memberId=" + fromId);
+        }
+        if (money <= 0) {
+            throw new IllegalArgumentException("이체 금액은 0보다 커야 합니다. money=" + money);
+        }
+        byte[] payload = TransferJournal.encode(fromId, toId, money);
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        lock.lock();
+        try {
+            while (true) {
+                if (closed) {
+                    throw new IllegalStateException("executor closed");
+                }
+                long next = journal.append(payload);
+                if (next >= 0) {
+                    pendingAcks.addLast(new PendingAck(next, future));
+                    appended.signal();
+                    return future;
+                }
+                // 가득 찼다. 모두 반영되었으면 처음부터 다시 쓰고, 아니면 applier를 기다린다.
+                if (appliedOffset == journal.end()) {
+                    journal.reset();
+                    continue;
+                }
+                applied.await(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for journal space", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // submit 후 fsync될 때까지 기다린다.
+    public void transfer(String fromId, String toId, int money) {
+        try {
+            submit(fromId, toId, money).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    // 지금까지 접수된 이체가 모두 DB에 반영될 때까지 기다린다. 시간 안에 끝나면 true
+    public boolean awaitApplied(Duration timeout) throws InterruptedException {
+        long remaining = timeout.toNanos();
+        lock.lock();
+        try {
+            while (appliedOffset < journal.end()) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = applied.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getSyncCount() {
+        return syncs.sum();
+    }
+
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    public long getAppliedCount() {
+        return appliedTransfers.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /*
+    *   접수를 멈추고 접수된 이체의 fsync를 마친 뒤 스레드를 끝낸다.
+    *   아직 반영되지 않은 이체는 저널에 남아 있다가 다음에 열 때 반영된다.
+    * */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            flusher.join();
+            applier.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        journal.close();
+    }
+
+    /*
+    *   스레드가 Error로 죽기 전에 실행기를 닫는다.
+    *   fsync 전인 요청은 접수되지 않은 것이므로 실패로 완료하고, 기다리는 스레드를 모두 깨운다.
+    * */
+    private void stop(String thread, Error e) {
+        log.error("{} stopped", thread, e);
+        List<CompletableFuture<Void>> failed = new ArrayList<>();
+        lock.lock();
+        try {
+            closed = true;
+            if (Thread.currentThread() == flusher) {
+                while (!pendingAcks.isEmpty()) {
+                    failed.add(pendingAcks.pollFirst().future);
+                }
+            }
+            appended.signalAll();
+            synced.signalAll();
+            applied.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        IllegalStateException stopped = new IllegalStateException(thread + " stopped", e);
+        for (CompletableFuture<Void> future : failed) {
+            future.completeExceptionally(stopped);
+        }
+    }
+
+    private void runFlusher() {
+        while (true) {
+            long target;
+            lock.lock();
+            try {
+                while (journal.end() == syncedOffset && !closed) {
+                    appended.await(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                if (journal.end() == syncedOffset) {
+                    return;
+                }
+                target = journal.end();
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            // fsync 동안에도 다른 스레드는 계속 붙여 쓴다. 그 레코드는 다음 force에 함께 내려간다.
+            try {
+                journal.force();
+            } catch (RuntimeException e) {
+                log.error("journal force failed", e);
+                sleep(RETRY_DELAY_MILLIS);
+                continue;
+            } catch (Error e) {
+                stop("journal flusher", e);
+                throw e;
+            }
+
+            List<CompletableFuture<Void>> acks = new ArrayList<>();
+            lock.lock();
+            try {
+                syncedOffset = target;
+                while (!pendingAcks.isEmpty() && pendingAcks.peekFirst().offset <= target) {
+                    acks.add(pendingAcks.pollFirst().future);
+                }
+                synced.signal();
+            } finally {
+                lock.unlock();
+            }
+            syncs.increment();
+            for (CompletableFuture<Void> ack : acks) {
+                ack.complete(null);
+            }
+        }
+    }
+
+    private void runApplier() {
+        while (true) {
+            List<JournalRecord> records;
+            lock.lock();
+            try {
+                while (appliedOffset == syncedOffset && !closed) {
+                    synced.await(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                if (closed) {
+                    return;
+                }
+                records = journal.read(appliedOffset, syncedOffset, maxBatchSize);
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            long next;
+            try {
+                next = apply(records);
+            } catch (Error e) {
+                stop("journal applier", e);
+                throw e;
+            } catch (RuntimeException e) {
+                // apply가 처리하지 못한 예외(버그 등). 위치를 옮기지 않고 다시 시도한다.
+                log.error("journal apply failed unexpectedly offset={}", records.get(0).offset, e);
+                next = records.get(0).offset;
+            }
+            lock.lock();
+            try {
+                appliedOffset = next;
+                applied.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (next == records.get(0).offset) {
+                sleep(RETRY_DELAY_MILLIS);
+            }
+        }
+    }
+
+    /*
+    *   레코드를 반영하고 반영한 다음 위치를 돌려준다.
+    *   DB 장애면 반영한 곳까지만 돌려준다. (하나도 못 했으면 첫 레코드의 offset)
+    * */
+    private long apply(List<JournalRecord> records) {
+        JournalRecord last = records.get(records.size() - 1);
+        List<Transfer> transfers = new ArrayList<>(records.size());
+        for (JournalRecord record : records) {
+            transfers.add(record.transfer);
+        }
+        try {
+            txTemplate.executeWithoutResult(status -> {
+                memberService.accountTransferBatch(transfers);
+                saveAppliedOffset(last.nextOffset);
+            });
+            batches.increment();
+            appliedTransfers.add(records.size());
+            return last.nextOffset;
+        } catch (RuntimeException e) {
+            if (DataAccessErrors.isRetryable(e)) {
+                log.warn("journal apply failed, retrying offset={}", records.get(0).offset, e);
+                return records.get(0).offset;
+            }
+            // 잔액 부족, 무결성 위반 등 : 한 건씩 반영해서 실패한 이체만 거절한다.
+            log.info("journal batch rejected, applying one by one size={} reason={}", records.size(), e.getMessage());
+            return applyOneByOne(records);
+        }
+    }
+
+    private long applyOneByOne(List<JournalRecord> records) {
+        long offset = records.get(0).offset;
+        for (JournalRecord record : records) {
+            Transfer transfer = record.transfer;
+            try {
+                txTemplate.executeWithoutResult(status -> {
+                    memberService.accountTransferAtomic(transfer.getFromId(), transfer.getToId(), transfer.getMoney());
+                    saveAppliedOffset(record.nextOffset);
+                });
+                appliedTransfers.increment();
+            } catch (RuntimeException e) {
+                if (DataAccessErrors.isRetryable(e)) {
+                    log.warn("journal apply failed, retrying offset={}", record.offset, e);
+                    return offset;
+                }
+                // 같은 레코드는 다시 해도 실패하므로 거절하고 다음 레코드로 넘어간다. (멈추면 뒤의 레코드가 모두 막힌다.)
+                try {
+                    txTemplate.executeWithoutResult(status -> saveAppliedOffset(record.nextOffset));
+                } catch (RuntimeException saveFailure) {
+                    log.warn("journal apply failed, retrying offset={}", record.offset, saveFailure);
+                    return offset;
+                }
+                rejected.increment();
+                rejectionListener.accept(transfer, e);
+            }
+            offset = record.nextOffset;
+        }
+        return offset;
+    }
+
+    private long loadAppliedOffset() {
+        List<Long> offsets = jdbcTemplate.queryForList(
+                "select applied_offset from transfer_journal where journal_name = ?", Long.class, journalName);
+        if (!offsets.isEmpty()) {
+            return offsets.get(0);
+        }
+        jdbcTemplate.update("insert into transfer_journal(journal_name, applied_offset) values(?, 0)", journalName);
+        return 0;
+    }
+
+    private void saveAppliedOffset(long offset) {
+        jdbcTemplate.update("update transfer_journal set applied_offset = ? where journal_name = ?", offset, journalName);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class PendingAck {
+        private final long offset;
+        private final CompletableFuture<Void> future;
+
+        private PendingAck(long offset, CompletableFuture<Void> future) {
+            this.offset = offset;
+            this.future = future;
+        }
+    }
+}
@@ -1,14 +1,23 @@
 package hello.jdbc.service;
 
 import hello.jdbc.domain.Member;
+import hello.jdbc.domain.Transfer;
 import hello.jdbc.repository.MemberRepository;
 import hello.jdbc.repository.MemberRepositoryV3;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
 
 /*
 * 예외 누수 문제 해결
@@ -30,17 +39,202 @@ public class MemberServiceV4 {
                 bizLogic(fromId, toId, money);
     }
 
+    /*
+    *   조회 없이 증감 SQL 두번으로 이체한다. (findById 2번 + update 2번 -> update 2번)
+    *   money = money + ? 는 DB가 행 락을 잡은 상태에서 계산하기 때문에 동시에 이체해도 갱신이 사라지지 않는다.
+    *   두 회원의 행은 항상 member_id 순서로 변경해서 A->B, B->A 이체가 서로 락을 기다리는 교착상태를 피한다.
+    * */
+    @Transactional
+    public void accountTransferAtomic(String fromId, String toId, int money) {
+        if (fromId.compareTo(toId) < 0) {
+            withdraw(fromId, money);
+            validation(toId);
+            deposit(toId, money);
+        } else {
+            validation(toId);
+            deposit(toId, money);
+            withdraw(fromId, money);
+        }
+    }
+
+    /*
+    *   출금과 입금을 update SQL 한번으로 처리한다. (MemberRepository.transferMoney)
+    *   H2 TCP 서버까지 왕복 횟수가 지연시간 대부분을 차지할 때 사용한다.
+    *   변경된 행이 2개가 아니면(잔액 부족, 없는 회원) 예외를 던져서 트랜잭션을 롤백한다.
+    *   SQL 오류는 리포지토리에서 스프링 예외 변환기로 DataAccessException으로 바뀌어 올라온다.
+    * */
+    @Transactional
+    public void accountTransferOneStatement(String fromId, String toId, int money) {
+        if (fromId.equals(toId)) {
+            throw new IllegalArgumentException("같은 회원에게 이체할 수 없습니다. memberId=" + fromId);
+        }
+        validation(toId);
+        int count = memberRepository.transferMoney(fromId, toId, money);
+        if (count != 2) {
+            throw new IllegalStateException("잔액 부족 또는 없는 회원 fromId=" + fromId + ", toId=" + toId);
+        }
+    }
+
+    /*
+    *   비관적 락 이체 (select ... for update)
+    *   두 회원의 행을 항상 member_id 순서로 잠근 뒤 조회한 값으로 계산해서 update 한다.
+    *   A->B, B->A 이체가 동시에 실행되어도 같은 순서로 락을 잡기 때문에 서로 기다리는 교착상태가 생기지 않는다.
+    *   락을 잡은 뒤에 읽은 값이라서 bizLogic과 달리 갱신 손실이 없다.
+    * */
+    @Transactional
+    public void accountTransferLocked(String fromId, String toId, int money) {
+        if (fromId.equals(toId)) {
+            throw new IllegalArgumentException("같은 회원에게 이체할 수 없습니다. memberId=" + fromId);
+        }
+        Member fromMember;
+        Member toMember;
+        if (fromId.compareTo(toId) < 0) {
+            fromMember = memberRepository.findByIdForUpdate(fromId);
+            toMember = memberRepository.findByIdForUpdate(toId);
+        } else {
+            toMember = memberRepository.findByIdForUpdate(toId);
+            fromMember = memberRepository.findByIdForUpdate(fromId);
+        }
+        if (fromMember.getMoney() < money) {
+            throw new IllegalStateException("잔액 부족 memberId=" + fromId);
+        }
+
+        memberRepository.update(fromId, fromMember.getMoney() - money);
+        validation(toId);
+        memberRepository.update(toId, toMember.getMoney() + money);
+    }
+
+    /*
+    *   낙관적 락 이체 (version 컬럼) - 한번만 시도한다. 재시도는 OptimisticTransferExecutor가 한다.
+    *   락 없이 조회하고 조회한 version이 그대로일 때만 update 한다. 행 락은 update 순간부터 커밋까지만 잡는다.
+    *   다른 트랜잭션이 먼저 바꿨으면(변경 0건) OptimisticLockingFailureException을 던져서 롤백한다.
+    *   두 행의 update는 member_id 순서로 실행해서 서로 기다리는 교착상태를 피한다.
+    * */
+    @Transactional
+    public void accountTransferOptimistic(String fromId, String toId, int money) {
+        if (fromId.equals(toId)) {
+            throw new IllegalArgumentException("같은 회원에게 이체할 수 없습니다. memberId=" + fromId);
+        }
+        Member fromMember = memberRepository.findById(fromId);
+        Member toMember = memberRepository.findById(toId);
+        if (fromMember.getMoney() < money) {
+            throw new IllegalStateException("잔액 부족 memberId=" + fromId);
+        }
+        validation(toId);
+        if (fromId.compareTo(toId) < 0) {
+            updateIfVersion(fromMember, fromMember.getMoney() - money);
+            updateIfVersion(toMember, toMember.getMoney() + money);
+        } else {
+            updateIfVersion(toMember, toMember.getMoney() + money);
+            updateIfVersion(fromMember, fromMember.getMoney() - money);
+        }
+    }
+
+    /*
+    *   대량 정산용 일괄 이체
+    *   이체 목록을 회원별 순증감(net delta) 하나로 합친 뒤 addMoneyAll 배치 한번으로 반영한다.
+    *   이체 10만건이 회원 5천명에 몰려있으면 update 20만번 대신 5천번만 실행된다.
+    *   - 잔액 검사는 SQL 조건(money + ? >= 0)으로 한다. 한 회원이라도 0건이면 예외를 던져서 전체를 롤백한다.
+    *   - 최종 잔액만 검사한다. (중간에 잠깐 음수가 되는 순서라도 합쳐서 0 이상이면 성공)
+    *   - member_id 순서로 반영해서 다른 이체와 교착상태를 피한다.
+    * */
+    @Transactional
+    public void accountTransferBatch(List<Transfer> transfers) {
+        NetDeltas net = new NetDeltas();
+        for (Transfer transfer : transfers) {
+            if (transfer.getFromId().equals(transfer.getToId())) {
+                throw new IllegalArgumentException("같은 회원에게 이체할 수 없습니다. memberId=" + transfer.getFromId());
+            }
+            validation(transfer.getToId());
+            net.add(transfer.getFromId(), -transfer.getMoney());
+            net.add(transfer.getToId(), transfer.getMoney());
+        }
+        Map<String, Integer> deltaByMemberId = net.toSortedMap();
+        if (deltaByMemberId.isEmpty()) {
+            return;
+        }
+        int[] counts = memberRepository.addMoneyAll(deltaByMemberId);
+        List<String> failed = new ArrayList<>();
+        int i = 0;
+        for (String memberId : deltaByMemberId.keySet()) {
+            if (counts[i++] == 0) {
+                failed.add(memberId);
+            }
+        }
+        if (!failed.isEmpty()) {
+            throw new IllegalStateException("잔액 부족 또는 없는 회원 memberId=" + failed);
+        }
+    }
+
     private void bizLogic(String fromId, String toId, int money) {
         Member fromMember = memberRepository.findById(fromId);
         Member toMember = memberRepository.findById(toId);
 
         memberRepository.update(fromId, fromMember.getMoney()-money);
-        validation(toMember);
+        validation(toMember.getMemberId());
         memberRepository.update(toId, toMember.getMoney()+money);
     }
 
-    private void validation(Member toMember){
-        if(toMember.getMemberId().equals("ex")){
+    private void updateIfVersion(Member member, int money) {
+        if (memberRepository.updateIfVersion(member.getMemberId(), money, member.getVersion()) == 0) {
+            throw new OptimisticLockingFailureException(
+                    "다른 트랜잭션이 먼저 변경했습니다. memberId=" + member.getMemberId() + ", version=" + member.getVersion());
+        }
+    }
+
+    private void withdraw(String memberId, int money) {
+        if (memberRepository.addMoneyIfSufficient(memberId, -money) == 0) {
+            throw new IllegalStateException("잔액 부족 또는 없는 회원 memberId=" + memberId);
+        }
+    }
+
+    private void deposit(String memberId, int money) {
+        if (memberRepository.addMoney(memberId, money) == 0) {
+            throw new NoSuchElementException("member not found memberId=" + memberId);
+        }
+    }
+
+    /*
+    *   회원별 순증감 합계
+    *   회원 id마다 배열 인덱스를 한번만 배정하고 합계는 long[]에 더한다. (이체마다 Integer를 만들지 않는다.)
+    * */
+    private static final class NetDeltas {
+        private final Map<String, Integer> indexByMemberId = new HashMap<>();
+        private final List<String> memberIds = new ArrayList<>();
+        private long[] deltas = new long[64];
+
+        private void add(String memberId, long delta) {
+            Integer index = indexByMemberId.get(memberId);
+            if (index == null) {
+                index = memberIds.size();
+                indexByMemberId.put(memberId, index);
+                memberIds.add(memberId);
+                if (index == deltas.length) {
+                    deltas = Arrays.copyOf(deltas, deltas.length * 2);
+                }
+            }
+            deltas[index] += delta;
+        }
+
+        // 순증감이 0인 회원은 제외하고 member_id 순서로 돌려준다.
+        private Map<String, Integer> toSortedMap() {
+            Map<String, Integer> result = new TreeMap<>();
+            for (int i = 0; i < memberIds.size(); i++) {
+                long delta = deltas[i];
+                if (delta == 0) {
+                    continue;
+                }
+                if (delta < Integer.MIN_VALUE || delta > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("순증감이 int 범위를 넘습니다. memberId=" + memberIds.get(i));
+                }
+                result.put(memberIds.get(i), (int) delta);
+            }
+            return result;
+        }
+    }
+
+    private void validation(String toId){
+        if(toId.equals("ex")){
             throw new IllegalStateException("이체중 예외 발생");
         }
     }
@@ -0,0 +1,90 @@
+package hello.jdbc.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.OptimisticLockingFailureException;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+*   낙관적 락 이체 재시도 실행기
+*   MemberServiceV4.accountTransferOptimistic (트랜잭션 AOP 프록시)를 호출하고
+*   버전 충돌(OptimisticLockingFailureException)이면 잠깐 쉬었다가 새 트랜잭션으로 다시 시도한다.
+*
+*   - 재시도는 반드시 트랜잭션 밖에서 해야 한다. (충돌한 트랜잭션은 이미 롤백되었고, 다시 읽어야 새 version이 보인다.)
+*   - 대기 시간은 baseBackoff * 2^(시도-1)을 maxBackoff로 자른 값 안에서 무작위로 고른다. (full jitter)
+*     같은 회원에서 충돌한 스레드들이 동시에 다시 부딪히지 않도록 흩어준다.
+*   - maxAttempts번 모두 충돌하면 마지막 예외를 그대로 던진다.
+*   - 잔액 부족, 없는 회원 같은 다른 예외는 재시도하지 않는다.
+*
+*   경합이 적은 계좌에서는 대부분 한번에 성공하고 행 락을 update부터 커밋까지만 잡는다.
+*   경합이 심한 계좌는 재시도가 늘어나므로 accountTransferLocked나 accountTransferAtomic이 낫다.
+* */
+@Slf4j
+public class OptimisticTransferExecutor {
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    public static final Duration DEFAULT_BASE_BACKOFF = Duration.ofMillis(1);
+    public static final Duration DEFAULT_MAX_BACKOFF = Duration.ofMillis(50);
+
+    private final MemberServiceV4 memberService;
+    private final int maxAttempts;
+    private final long baseBackoffNanos;
+    private final long maxBackoffNanos;
+
+    private final LongAdder conflicts = new LongAdder();
+    private final LongAdder exhausted = new LongAdder();
+
+    public OptimisticTransferExecutor(MemberServiceV4 memberService) {
+        this(memberService, DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_BACKOFF, DEFAULT_MAX_BACKOFF);
+    }
+
+    public OptimisticTransferExecutor(MemberServiceV4 memberService, int maxAttempts,
+                                      Duration baseBackoff, Duration maxBackoff) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be positive: " + maxAttempts);
+        }
+        this.memberService = memberService;
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffNanos = baseBackoff.toNanos();
+        this.maxBackoffNanos = maxBackoff.toNanos();
+    }
+
+    public void transfer(String fromId, String toId, int money) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                memberService.accountTransferOptimistic(fromId, toId, money);
+                return;
+            } catch (OptimisticLockingFailureException e) {
+                conflicts.increment();
+                if (attempt >= maxAttempts) {
+                    exhausted.increment();
+                    throw e;
+                }
+                log.debug("version conflict attempt={} fromId={} toId={}", attempt, fromId, toId);
+                backoff(attempt, e);
+            }
+        }
+    }
+
+    // 버전 충돌 횟수 (재시도해서 성공한 것 포함)
+    public long getConflictCount() {
+        return conflicts.sum();
+    }
+
+    // 재시도 한도를 넘어서 실패한 이체 수
+    public long getExhaustedCount() {
+        return exhausted.sum();
+    }
+
+    private void backoff(int attempt, OptimisticLockingFailureException cause) {
+        long ceiling = Math.min(maxBackoffNanos, baseBackoffNanos << Math.min(attempt - 1, 20));
+        long sleepNanos = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        try {
+            Thread.sleep(sleepNanos / 1_000_000, (int) (sleepNanos % 1_000_000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw cause;
+        }
+    }
+}
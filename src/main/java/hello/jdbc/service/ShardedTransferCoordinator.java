@@ -0,0 +1,315 @@
+package hello.jdbc.service;
+
+import hello.jdbc.repository.MemberRepository;
+import hello.jdbc.repository.shard.ShardedMemberRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/*
+*   샤드 이체 코디네이터
+*   회원이 여러 DataSource(ShardedMemberRepository)에 나뉘면 @Transactional 하나로 두 회원을 묶을 수 없다.
+*
+*   - 같은 샤드 : 그 샤드의 로컬 트랜잭션 하나로 transferMoney를 실행한다. (기존과 같은 빠른 경로)
+*   - 다른 샤드 : 출금 -> 입금 사가(saga)로 처리한다.
+*     1. transfer_saga(코디네이터 DB)에 STARTED로 기록
+*     2. 출금 샤드 로컬 트랜잭션 : saga_step(DEBIT) insert + 출금      -> DEBITED
+*     3. 입금 샤드 로컬 트랜잭션 : saga_step(CREDIT) insert + 입금     -> COMPLETED
+*     출금이 거절되면(잔액 부족, 없는 회원) 바뀐 것이 없으므로 FAILED.
+*     입금이 거절되면(없는 회원) 보상 트랜잭션 saga_step(REFUND) + 출금 회원에게 환불 -> COMPENSATING -> COMPENSATED
+*
+*   단계 멱등성 : saga_step은 (saga_id, step)이 PK이고 금액 변경보다 먼저 같은 트랜잭션에서 insert 한다.
+*   같은 단계를 다시 실행하면 DuplicateKeyException으로 롤백되므로 금액은 한번만 바뀐다. -> 복구에서 마음 놓고 재시도할 수 있다.
+*
+*   일시적인 DB 장애(DataAccessErrors.isRetryable)면 사가 상태를 그대로 두고 예외를 던진다. 남은 단계는 recover()가 이어서 처리한다.
+*   다시 해도 실패하는 DB 오류(무결성 위반 등)는 거절과 같이 처리한다. (재시도하면 사가가 영원히 끝나지 않는다.)
+*   (호출자가 예외를 받았어도 출금이 끝났다면 복구 후 이체가 완료될 수 있다. 결과는 transfer_saga로 확인한다.)
+*
+*   recover() : 애플리케이션 시작 시 호출한다. 끝나지 않은 사가(STARTED, DEBITED, COMPENSATING)를 병렬로 이어서 처리한다.
+*   - STARTED  : 출금 단계 기록이 없으면 FAILED, 있으면 DEBITED와 같이 입금을 이어서 한다.
+*   - DEBITED  : 입금을 다시 시도한다. 거절되면 보상한다.
+*   - COMPENSATING : 환불을 다시 시도한다.
+*   환불마저 거절되면(그 사이 출금 회원이 삭제됨 등) MANUAL로 끝내고 error 로그를 남긴다. 사람이 처리해야 하며 recover()는 다시 시도하지 않는다.
+*
+*   recover()는 진행 중인 사가가 없다고 가정한다. (진행 중인 사가를 동시에 이어서 처리하면 단계는 멱등이지만 상태가 뒤섞인다.)
+*   - 이 인스턴스 안에서는 락으로 지킨다. recover()는 진행 중인 샤드 간 이체가 끝나기를 기다리고, 복구 중에는 새 이체가 기다린다.
+*   - 다른 코디네이터 인스턴스(다른 JVM)는 막지 못한다. 코디네이터는 하나만 실행한다.
+* */
+@Slf4j
+public class ShardedTransferCoordinator {
+    public static final int DEFAULT_RECOVERY_THREADS = 8;
+
+    enum SagaStatus { STARTED, DEBITED, COMPLETED, FAILED, COMPENSATING, COMPENSATED, MANUAL }
+
+    private static final String DEBIT = "DEBIT";
+    private static final String CREDIT = "CREDIT";
+    private static final String REFUND = "REFUND";
+
+    private final ShardedMemberRepository memberRepository;
+    private final JdbcTemplate sagaLog;
+    private final List<JdbcTemplate> shardTemplates = new ArrayList<>();
+    private final List<TransactionTemplate> shardTxTemplates = new ArrayList<>();
+    private final int recoveryThreads;
+    // 샤드 간 이체는 read 락, recover()는 write 락
+    private final ReadWriteLock recoveryLock = new ReentrantReadWriteLock();
+
+    public ShardedTransferCoordinator(ShardedMemberRepository memberRepository, DataSource sagaLogDataSource) {
+        this(memberRepository, sagaLogDataSource, DEFAULT_RECOVERY_THREADS);
+    }
+
+    public ShardedTransferCoordinator(ShardedMemberRepository memberRepository, DataSource sagaLogDataSource,
+                                      int recoveryThreads) {
+        this.memberRepository = memberRepository;
+        this.sagaLog = new JdbcTemplate(sagaLogDataSource);
+        for (int i = 0; i < memberRepository.shardCount(); i++) {
+            DataSource dataSource = memberRepository.dataSource(i);
+            shardTemplates.add(new JdbcTemplate(dataSource));
+            shardTxTemplates.add(new TransactionTemplate(new DataSourceTransactionManager(dataSource)));
+        }
+        this.recoveryThreads = recoveryThreads;
+    }
+
+    public void accountTransfer(String fromId, String toId, int money) {
+        if (fromId.equals(toId)) {
+            throw new IllegalArgumentException("같은 회원에게 이체할 수 없습니다. memberId=" + fromId);
+        }
+        validation(toId);
+        int fromShard = memberRepository.shardIndex(fromId);
+        int toShard = memberRepository.shardIndex(toId);
+        if (fromShard == toShard) {
+            transferLocal(fromShard, fromId, toId, money);
+            return;
+        }
+
+        recoveryLock.readLock().lock();
+        try {
+            transferSaga(fromId, toId, money);
+        } finally {
+            recoveryLock.readLock().unlock();
+        }
+    }
+
+    private void transferSaga(String fromId, String toId, int money) {
+        String sagaId = UUID.randomUUID().toString();
+        sagaLog.update("insert into transfer_saga(saga_id, from_id, to_id, money, status) values(?, ?, ?, ?, ?)",
+                sagaId, fromId, toId, money, SagaStatus.STARTED.name());
+        try {
+            debit(sagaId, fromId, money);
+        } catch (RuntimeException e) {
+            if (DataAccessErrors.isRetryable(e)) {
+                log.warn("saga debit failed, left for recovery sagaId={}", sagaId, e);
+                throw e;
+            }
+            setStatus(sagaId, SagaStatus.FAILED);
+            throw e;
+        }
+        setStatus(sagaId, SagaStatus.DEBITED);
+        RuntimeException rejected = creditOrCompensate(sagaId, fromId, toId, money);
+        if (rejected != null) {
+            throw rejected;
+        }
+    }
+
+    /*
+    *   끝나지 않은 사가를 recoveryThreads개 스레드로 병렬 처리한다. 반환값 : 처리한 사가 수
+    *   사가 하나가 실패해도(DB 장애) 나머지는 계속 처리하고, 실패한 사가는 다음 recover()에 다시 처리된다.
+    * */
+    public int recover() {
+        recoveryLock.writeLock().lock();
+        try {
+            return recoverPending();
+        } finally {
+            recoveryLock.writeLock().unlock();
+        }
+    }
+
+    private int recoverPending() {
+        List<Saga> sagas = sagaLog.query(
+                "select saga_id, from_id, to_id, money, status from transfer_saga where status in (?, ?, ?)",
+                (rs, rowNum) -> new Saga(rs.getString("saga_id"), rs.getString("from_id"), rs.getString("to_id"),
+                        rs.getInt("money"), SagaStatus.valueOf(rs.getString("status"))),
+                SagaStatus.STARTED.name(), SagaStatus.DEBITED.name(), SagaStatus.COMPENSATING.name());
+        if (sagas.isEmpty()) {
+            return 0;
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(recoveryThreads, sagas.size()), r -> {
+            Thread thread = new Thread(r, "saga-recovery-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger recovered = new AtomicInteger();
+        try {
+            List<CompletableFuture<Void>> futures = new ArrayList<>(sagas.size());
+            for (Saga saga : sagas) {
+                futures.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        resume(saga);
+                        recovered.incrementAndGet();
+                    } catch (RuntimeException e) {
+                        log.warn("saga recovery failed sagaId={}", saga.sagaId, e);
+                    }
+                }, executor));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        } finally {
+            executor.shutdown();
+        }
+        log.info("saga recovery pending={} recovered={}", sagas.size(), recovered.get());
+        return recovered.get();
+    }
+
+    private void resume(Saga saga) {
+        switch (saga.status) {
+            case STARTED:
+                if (!stepExists(memberRepository.shardIndex(saga.fromId), saga.sagaId, DEBIT)) {
+                    setStatus(saga.sagaId, SagaStatus.FAILED);
+                    return;
+                }
+                setStatus(saga.sagaId, SagaStatus.DEBITED);
+                creditOrCompensate(saga.sagaId, saga.fromId, saga.toId, saga.money);
+                return;
+            case DEBITED:
+                creditOrCompensate(saga.sagaId, saga.fromId, saga.toId, saga.money);
+                return;
+            case COMPENSATING:
+                compensate(saga.sagaId, saga.fromId, saga.money);
+                return;
+            default:
+        }
+    }
+
+    /*
+    *   입금하고 COMPLETED로 바꾼다. 입금이 거절되면 보상하고 거절 예외를 돌려준다. (완료되면 null)
+    *   다시 해도 실패하는 DB 오류(무결성 위반 등)도 거절로 본다. 일시적인 DB 장애만 그대로 던진다.
+    * */
+    private RuntimeException creditOrCompensate(String sagaId, String fromId, String toId, int money) {
+        try {
+            credit(sagaId, toId, money);
+        } catch (RuntimeException e) {
+            if (DataAccessErrors.isRetryable(e)) {
+                log.warn("saga credit failed, left for recovery sagaId={}", sagaId, e);
+                throw e;
+            }
+            setStatus(sagaId, SagaStatus.COMPENSATING);
+            compensate(sagaId, fromId, money);
+            return e;
+        }
+        setStatus(sagaId, SagaStatus.COMPLETED);
+        return null;
+    }
+
+    /*
+    *   출금 회원에게 환불하고 COMPENSATED로 바꾼다.
+    *   환불이 거절되면 다시 해도 실패하므로 MANUAL로 끝낸다. 일시적인 DB 장애만 그대로 던진다. (COMPENSATING으로 남아 recover()가 재시도)
+    * */
+    private void compensate(String sagaId, String fromId, int money) {
+        MemberRepository shard = shardOf(fromId);
+        try {
+            applyStep(memberRepository.shardIndex(fromId), sagaId, REFUND, () -> shard.addMoney(fromId, money),
+                    () -> new NoSuchElementException("member not found memberId=" + fromId));
+        } catch (RuntimeException e) {
+            if (DataAccessErrors.isRetryable(e)) {
+                throw e;
+            }
+            setStatus(sagaId, SagaStatus.MANUAL);
+            log.error("saga refund rejected, manual intervention required sagaId={} fromId={} money={}",
+                    sagaId, fromId, money, e);
+            return;
+        }
+        setStatus(sagaId, SagaStatus.COMPENSATED);
+    }
+
+    private void debit(String sagaId, String fromId, int money) {
+        MemberRepository shard = shardOf(fromId);
+        applyStep(memberRepository.shardIndex(fromId), sagaId, DEBIT, () -> shard.addMoneyIfSufficient(fromId, -money),
+                () -> new IllegalStateException("잔액 부족 또는 없는 회원 memberId=" + fromId));
+    }
+
+    private void credit(String sagaId, String toId, int money) {
+        MemberRepository shard = shardOf(toId);
+        applyStep(memberRepository.shardIndex(toId), sagaId, CREDIT, () -> shard.addMoney(toId, money),
+                () -> new NoSuchElementException("member not found memberId=" + toId));
+    }
+
+    /*
+    *   단계 하나를 샤드 로컬 트랜잭션으로 실행한다.
+    *   이미 실행된 단계면(saga_step 중복) 아무것도 바꾸지 않고 성공으로 본다.
+    *   change가 0을 반환하면 rejection 예외로 롤백한다.
+    * */
+    private void applyStep(int shard, String sagaId, String step, IntSupplier change,
+                           Supplier<RuntimeException> rejection) {
+        try {
+            shardTxTemplates.get(shard).executeWithoutResult(status -> {
+                shardTemplates.get(shard).update("insert into saga_step(saga_id, step) values(?, ?)", sagaId, step);
+                if (change.getAsInt() == 0) {
+                    throw rejection.get();
+                }
+            });
+        } catch (DuplicateKeyException e) {
+            log.info("saga step already applied sagaId={} step={}", sagaId, step);
+        }
+    }
+
+    private boolean stepExists(int shard, String sagaId, String step) {
+        Integer count = shardTemplates.get(shard).queryForObject(
+                "select count(*) from saga_step where saga_id = ? and step = ?", Integer.class, sagaId, step);
+        return count != null && count > 0;
+    }
+
+    private void transferLocal(int shard, String fromId, String toId, int money) {
+        MemberRepository repository = memberRepository.shard(shard);
+        shardTxTemplates.get(shard).executeWithoutResult(status -> {
+            // 2가 아니면 잔액 부족 또는 없는 회원 -> 예외로 롤백
+            if (repository.transferMoney(fromId, toId, money) != 2) {
+                throw new IllegalStateException("이체 실패 fromId=" + fromId + ", toId=" + toId);
+            }
+        });
+    }
+
+    private void setStatus(String sagaId, SagaStatus status) {
+        sagaLog.update("update transfer_saga set status = ? where saga_id = ?", status.name(), sagaId);
+    }
+
+    private MemberRepository shardOf(String memberId) {
+        return memberRepository.shard(memberRepository.shardIndex(memberId));
+    }
+
+    private void validation(String toId) {
+        if (toId.equals("ex")) {
+            throw new IllegalStateException("이체중 예외 발생");
+        }
+    }
+
+    private static final class Saga {
+        private final String sagaId;
+        private final String fromId;
+        private final String toId;
+        private final int money;
+        private final SagaStatus status;
+
+        private Saga(String sagaId, String fromId, String toId, int money, SagaStatus status) {
+            this.sagaId = sagaId;
+            this.fromId = fromId;
+            this.toId = toId;
+            this.money = money;
+            this.status = status;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package hello.jdbc.service;
+
+import org.springframework.dao.CannotAcquireLockException;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/*
+*   JVM 안의 회원 락 테이블 (lock striping)
+*   memberId의 해시로 고른 ReentrantLock(stripe)을 잡는다. 회원마다 락을 만들지 않고 stripe 개수만큼만 둔다.
+*   (서로 다른 회원이 같은 stripe에 걸리면 같이 기다리게 되지만 정확성에는 문제가 없다.)
+*
+*   - 여러 회원을 잡을 때는 stripe 번호 오름차순으로 잡고 역순으로 푼다. -> 교착상태가 생기지 않는다.
+*   - 같은 stripe에 걸린 회원은 한번만 잡는다.
+*   - timeout 안에 못 잡으면 CannotAcquireLockException을 던진다.
+*
+*   트랜잭션(커넥션)을 시작하기 전에 잡아야 의미가 있다. 락을 기다리는 스레드는 커넥션을 들고 있지 않는다.
+*   한 JVM 안에서만 유효하다. 다른 서버의 동시 이체는 여전히 DB 락으로 막아야 한다.
+* */
+public class StripedLockManager {
+    public static final int DEFAULT_STRIPES = 1024;
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(5);
+
+    private final ReentrantLock[] stripes;
+    private final int mask;
+    private final long timeoutNanos;
+    private final LongAdder contended = new LongAdder();
+
+    public StripedLockManager() {
+        this(DEFAULT_STRIPES, DEFAULT_TIMEOUT);
+    }
+
+    // stripes는 2의 거듭제곱으로 올림한다.
+    public StripedLockManager(int stripes, Duration timeout) {
+        int size = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+        this.timeoutNanos = timeout.toNanos();
+    }
+
+    public int stripeCount() {
+        return stripes.length;
+    }
+
+    public int stripeIndex(String memberId) {
+        int h = memberId.hashCode();
+        // HashMap과 같이 상위 비트를 섞어서 비슷한 id가 한 stripe에 몰리지 않게 한다.
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    // 다른 스레드가 잡고 있어서 기다려야 했던 횟수
+    public long getContendedCount() {
+        return contended.sum();
+    }
+
+    public void runLocked(Runnable action, String... memberIds) {
+        callLocked(() -> {
+            action.run();
+            return null;
+        }, memberIds);
+    }
+
+    public <T> T callLocked(Supplier<T> action, String... memberIds) {
+        int[] indexes = sortedStripes(memberIds);
+        int locked = 0;
+        try {
+            for (int index : indexes) {
+                acquire(stripes[index]);
+                locked++;
+            }
+            return action.get();
+        } finally {
+            for (int i = locked - 1; i >= 0; i--) {
+                stripes[indexes[i]].unlock();
+            }
+        }
+    }
+
+    private int[] sortedStripes(String[] memberIds) {
+        int[] indexes = new int[memberIds.length];
+        for (int i = 0; i < memberIds.length; i++) {
+            indexes[i] = stripeIndex(memberIds[i]);
+        }
+        Arrays.sort(indexes);
+        int size = 0;
+        for (int i = 0; i < indexes.length; i++) {
+            if (size == 0 || indexes[size - 1] != indexes[i]) {
+                indexes[size++] = indexes[i];
+            }
+        }
+        return Arrays.copyOf(indexes, size);
+    }
+
+    private void acquire(ReentrantLock lock) {
+        if (lock.tryLock()) {
+            return;
+        }
+        contended.increment();
+        try {
+            if (!lock.tryLock(timeoutNanos, TimeUnit.NANOSECONDS)) {
+                throw new CannotAcquireLockException("member lock timeout");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CannotAcquireLockException("interrupted while waiting for member lock", e);
+        }
+    }
+}
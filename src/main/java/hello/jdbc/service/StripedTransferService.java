@@ -0,0 +1,28 @@
+package hello.jdbc.service;
+
+/*
+*   같은 회원의 이체를 JVM 안에서 먼저 줄 세우는 서비스
+*   MemberServiceV4(트랜잭션 AOP 프록시)를 감싸서 StripedLockManager로 두 회원의 stripe를 잡은 뒤에 호출한다.
+*
+*   트랜잭션 AOP는 메서드에 들어갈 때 커넥션을 빌리기 때문에 락은 반드시 프록시 바깥(이 클래스)에서 잡아야 한다.
+*   - 인기 회원(가맹점 등)에게 이체가 몰려도 기다리는 스레드는 커넥션 없이 JVM 락에서 기다린다.
+*     DB 행 락 대기로 커넥션 풀이 바닥나는 일이 없다.
+*   - 같은 JVM 안에서는 같은 회원의 이체가 한번에 하나만 실행되므로 DB 락 대기도 거의 없다.
+* */
+public class StripedTransferService {
+    private final MemberServiceV4 memberService;
+    private final StripedLockManager lockManager;
+
+    public StripedTransferService(MemberServiceV4 memberService, StripedLockManager lockManager) {
+        this.memberService = memberService;
+        this.lockManager = lockManager;
+    }
+
+    public void accountTransfer(String fromId, String toId, int money) {
+        lockManager.runLocked(() -> memberService.accountTransfer(fromId, toId, money), fromId, toId);
+    }
+
+    public void accountTransferAtomic(String fromId, String toId, int money) {
+        lockManager.runLocked(() -> memberService.accountTransferAtomic(fromId, toId, money), fromId, toId);
+    }
+}
@@ -0,0 +1,224 @@
+package hello.jdbc.service;
+
+import hello.jdbc.domain.Transfer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/*
+*   이체 저널 파일 (memory-mapped)
+*   파일 앞 HEADER_SIZE 바이트는 헤더, 나머지는 레코드를 순서대로 붙여 쓴다.
+*
+*   헤더   : magic(int) + 예약(int) + base(long)
+*   레코드 : 길이(int) + crc(int) + offset(long) + 본문(fromId, toId, money)
+*
+*   offset은 파일 위치가 아니라 계속 증가하는 논리 위치다. 파일 위치 = HEADER_SIZE + (offset - base)
+*   - 파일이 가득 차면 모두 반영된 뒤 reset()으로 base를 지금 끝으로 옮기고 처음부터 다시 쓴다.
+*   - 열 때 base부터 레코드를 읽으면서 길이, offset, crc가 맞지 않는 곳을 끝으로 본다.
+*     (쓰다 만 레코드나 reset 전에 쓴 옛날 레코드는 여기서 걸러진다.)
+*
+*   스레드 안전하지 않다. JournaledTransferExecutor가 락을 잡고 호출한다. (force()만 락 밖에서 호출해도 된다.)
+* */
+final class TransferJournal implements AutoCloseable {
+    static final int HEADER_SIZE = 16;
+    private static final int MAGIC = 0x544A524E;
+    private static final int RECORD_HEADER_SIZE = 16;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private long base;
+    private long end;
+
+    private TransferJournal(FileChannel channel, MappedByteBuffer buffer, int capacity) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.capacity = capacity;
+    }
+
+    /*
+    *   저널 파일을 연다. 없으면 만들고 base를 appliedOffset으로 둔다.
+    *   appliedOffset : DB에 반영된 마지막 위치. 저널 범위(base ~ end) 밖이면 다른 저널 파일이므로 예외를 던진다.
+    * */
+    static TransferJournal open(Path path, int capacity, long appliedOffset) {
+        try {
+            FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            boolean created = channel.size() == 0;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) HEADER_SIZE + capacity);
+            TransferJournal journal = new TransferJournal(channel, buffer, capacity);
+            if (created) {
+                buffer.putInt(0, MAGIC);
+                journal.writeBase(appliedOffset);
+                journal.end = appliedOffset;
+                buffer.force();
+                return journal;
+            }
+            if (buffer.getInt(0) != MAGIC) {
+                channel.close();
+                throw new IllegalStateException("not a transfer journal path=" + path);
+            }
+            journal.base = buffer.getLong(8);
+            journal.end = journal.scan();
+            if (appliedOffset < journal.base || appliedOffset > journal.end) {
+                channel.close();
+                throw new IllegalStateException("applied offset " + appliedOffset + " is outside of journal ["
+                        + journal.base + ", " + journal.end + "] path=" + path);
+            }
+            return journal;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static byte[] encode(String fromId, String toId, int money) {
+        byte[] from = fromId.getBytes(StandardCharsets.UTF_8);
+        byte[] to = toId.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(2 + from.length + 2 + to.length + 4);
+        payload.putShort((short) from.length).put(from);
+        payload.putShort((short) to.length).put(to);
+        payload.putInt(money);
+        return payload.array();
+    }
+
+    long end() {
+        return end;
+    }
+
+    long base() {
+        return base;
+    }
+
+    /*
+    *   레코드를 붙여 쓴다. 반환값 : 이 레코드 다음 offset, 자리가 없으면 -1
+    *   디스크에 내려가는 것은 force() 이후다.
+    * */
+    long append(byte[] payload) {
+        int size = RECORD_HEADER_SIZE + payload.length;
+        if (size > capacity) {
+            throw new IllegalArgumentException("record larger than journal capacity size=" + size);
+        }
+        long position = end - base;
+        if (position + size > capacity) {
+            return -1;
+        }
+        int at = HEADER_SIZE + (int) position;
+        buffer.putInt(at, payload.length);
+        buffer.putInt(at + 4, crc(end, payload));
+        buffer.putLong(at + 8, end);
+        ByteBuffer target = buffer.duplicate();
+        target.position(at + RECORD_HEADER_SIZE);
+        target.put(payload);
+        end += size;
+        return end;
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    // from부터 to 전까지 레코드를 최대 max개 읽는다.
+    List<JournalRecord> read(long from, long to, int max) {
+        List<JournalRecord> records = new ArrayList<>();
+        long offset = from;
+        while (offset < to && records.size() < max) {
+            int at = HEADER_SIZE + (int) (offset - base);
+            byte[] payload = payload(at);
+            long next = offset + RECORD_HEADER_SIZE + payload.length;
+            records.add(new JournalRecord(offset, next, decode(payload)));
+            offset = next;
+        }
+        return records;
+    }
+
+    // 모든 레코드가 반영된 뒤에만 호출한다. 지금 끝을 새 base로 두고 파일 처음부터 다시 쓴다.
+    void reset() {
+        writeBase(end);
+        buffer.force();
+    }
+
+    @Override
+    public void close() {
+        buffer.force();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeBase(long base) {
+        this.base = base;
+        buffer.putLong(8, base);
+    }
+
+    // base부터 올바른 레코드가 이어지는 마지막 위치를 찾는다.
+    private long scan() {
+        long offset = base;
+        while (true) {
+            long position = offset - base;
+            if (position + RECORD_HEADER_SIZE > capacity) {
+                return offset;
+            }
+            int at = HEADER_SIZE + (int) position;
+            int length = buffer.getInt(at);
+            if (length <= 0 || position + RECORD_HEADER_SIZE + length > capacity || buffer.getLong(at + 8) != offset) {
+                return offset;
+            }
+            byte[] payload = payload(at);
+            if (buffer.getInt(at + 4) != crc(offset, payload)) {
+                return offset;
+            }
+            offset += RECORD_HEADER_SIZE + length;
+        }
+    }
+
+    private byte[] payload(int at) {
+        byte[] payload = new byte[buffer.getInt(at)];
+        ByteBuffer source = buffer.duplicate();
+        source.position(at + RECORD_HEADER_SIZE);
+        source.get(payload);
+        return payload;
+    }
+
+    private static Transfer decode(byte[] payload) {
+        ByteBuffer source = ByteBuffer.wrap(payload);
+        String fromId = readString(source);
+        String toId = readString(source);
+        return new Transfer(fromId, toId, source.getInt());
+    }
+
+    private static String readString(ByteBuffer source) {
+        byte[] bytes = new byte[source.getShort()];
+        source.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int crc(long offset, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(8).putLong(0, offset));
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    static final class JournalRecord {
+        final long offset;
+        final long nextOffset;
+        final Transfer transfer;
+
+        JournalRecord(long offset, long nextOffset, Transfer transfer) {
+            this.offset = offset;
+            this.nextOffset = nextOffset;
+            this.transfer = transfer;
+        }
+    }
+}
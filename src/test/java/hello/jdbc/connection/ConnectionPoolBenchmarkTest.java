@@ -0,0 +1,53 @@
+package hello.jdbc.connection;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepositoryV0;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+
+/*
+*   DriverManager 모드와 풀링 모드의 연산당 지연시간 비교
+*   같은 findById를 반복해서 호출하고 평균 시간을 로그로 남긴다.
+* */
+@Slf4j
+@Tag("benchmark")
+class ConnectionPoolBenchmarkTest {
+    static final String MEMBER_ID = "memberBm";
+    static final int WARMUP = 100;
+    static final int ITERATIONS = 1000;
+
+    MemberRepositoryV0 directRepository = new MemberRepositoryV0(false);
+    MemberRepositoryV0 pooledRepository = new MemberRepositoryV0(true);
+
+    @AfterEach
+    void after() throws SQLException {
+        directRepository.delete(MEMBER_ID);
+    }
+
+    @Test
+    void findByIdLatency() throws SQLException {
+        directRepository.save(new Member(MEMBER_ID, 10000));
+
+        long direct = measure(directRepository);
+        long pooled = measure(pooledRepository);
+
+        log.info("driverManager avg={}us/op", direct / 1000);
+        log.info("pooled        avg={}us/op", pooled / 1000);
+    }
+
+    // 연산당 평균 시간(ns)
+    private long measure(MemberRepositoryV0 repository) throws SQLException {
+        for (int i = 0; i < WARMUP; i++) {
+            repository.findById(MEMBER_ID);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            repository.findById(MEMBER_ID);
+        }
+        return (System.nanoTime() - start) / ITERATIONS;
+    }
+}
@@ -3,6 +3,7 @@ package hello.jdbc.connection;
 import org.junit.jupiter.api.Test;
 
 import java.sql.Connection;
+import java.sql.SQLException;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 
@@ -12,4 +13,26 @@ class DBConnectionUtilTest {
         Connection connection = DBConnectionUtil.getConnection();
         assertThat(connection).isNotNull();
     }
+
+    @Test
+    void pooledConnection() throws SQLException {
+        // close()를 호출하면 물리 커넥션이 닫히지 않고 풀에 반납된다.
+        SimpleConnectionPool pool = new SimpleConnectionPool(ConnectionConst.URL, ConnectionConst.USERNAME,
+                ConnectionConst.PASSWORD, 1, 1000);
+        try {
+            Connection con1 = pool.borrow();
+            Connection physical1 = con1.unwrap(Connection.class);
+            assertThat(pool.idleCount()).isEqualTo(0);
+            con1.close();
+            assertThat(con1.isClosed()).isTrue();
+            assertThat(pool.idleCount()).isEqualTo(1);
+
+            Connection con2 = pool.borrow();
+            assertThat(con2.unwrap(Connection.class)).isSameAs(physical1);
+            assertThat(physical1.isClosed()).isFalse();
+            con2.close();
+        } finally {
+            pool.close();
+        }
+    }
 }
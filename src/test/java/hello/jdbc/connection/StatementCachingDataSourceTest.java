@@ -0,0 +1,95 @@
+package hello.jdbc.connection;
+
+import com.zaxxer.hikari.HikariDataSource;
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepositoryV4_2;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Slf4j
+class StatementCachingDataSourceTest {
+    HikariDataSource hikari;
+    StatementCachingDataSource dataSource;
+
+    @BeforeEach
+    void before() {
+        hikari = TestDataSources.hikari(1);
+        dataSource = new StatementCachingDataSource(hikari);
+    }
+
+    @AfterEach
+    void after() {
+        hikari.close();
+    }
+
+    @Test
+    void logicalCloseReturnsStatementToCache() throws SQLException {
+        String sql = "select 1";
+        PreparedStatement physical1;
+        try (Connection con = dataSource.getConnection();
+             PreparedStatement pstmt = con.prepareStatement(sql)) {
+            physical1 = pstmt.unwrap(PreparedStatement.class);
+        }
+        // 커넥션을 풀에 반납했다가 다시 빌려도 같은 물리 커넥션이면 statement가 재사용된다.
+        try (Connection con = dataSource.getConnection();
+             PreparedStatement pstmt = con.prepareStatement(sql)) {
+            assertThat(pstmt.unwrap(PreparedStatement.class)).isSameAs(physical1);
+            assertThat(physical1.isClosed()).isFalse();
+        }
+        assertThat(dataSource.getMissCount()).isEqualTo(1);
+        assertThat(dataSource.getHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    void cachedStatementBehavesLikePooledStatement() throws SQLException {
+        String memberId = "memberSd";
+        try (Connection con = dataSource.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("insert into member(member_id, money) values(?, ?)")) {
+            // 물리 커넥션이 아니라 빌려준 커넥션을 돌려준다.
+            assertThat(pstmt.getConnection()).isSameAs(con);
+            con.setAutoCommit(false);
+            pstmt.setString(1, memberId);
+            pstmt.setInt(2, 10000);
+            pstmt.executeUpdate();
+            // 커밋하지 않고 반납한다.
+        }
+        try (Connection con = dataSource.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("select count(*) from member where member_id = ?")) {
+            pstmt.setString(1, memberId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                assertThat(rs.getInt(1)).isEqualTo(0);
+            }
+        }
+    }
+
+    @Test
+    void transactionBoundConnection() {
+        MemberRepositoryV4_2 repository = new MemberRepositoryV4_2(dataSource);
+        TransactionTemplate txTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        Member member = new Member("memberSc", 10000);
+
+        txTemplate.executeWithoutResult(status -> {
+            repository.save(member);
+            repository.update(member.getMemberId(), 20000);
+            repository.update(member.getMemberId(), 30000);
+            assertThat(repository.findById(member.getMemberId()).getMoney()).isEqualTo(30000);
+            status.setRollbackOnly();
+        });
+
+        log.info("hit={}, miss={}", dataSource.getHitCount(), dataSource.getMissCount());
+        // 두번째 update는 첫번째 update의 statement를 재사용한다.
+        assertThat(dataSource.getHitCount()).isGreaterThanOrEqualTo(1);
+    }
+}
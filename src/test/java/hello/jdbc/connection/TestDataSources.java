@@ -0,0 +1,44 @@
+package hello.jdbc.connection;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import static hello.jdbc.connection.ConnectionConst.*;
+
+/*
+*   테스트 공용 DataSource 픽스처
+*   ConnectionConst의 TCP H2에 붙는 HikariDataSource를 만든다.
+*   풀 크기가 중요한 테스트(동시성, 캐시 적중)는 hikari(int)로 크기를 지정한다.
+*   샤드 테스트는 memberShard(name)로 member 테이블만 있는 메모리 H2를 샤드마다 따로 만든다.
+*   만든 쪽에서 close() 해야 한다.
+* */
+public final class TestDataSources {
+
+    private TestDataSources() {
+    }
+
+    public static HikariDataSource hikari() {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(URL);
+        dataSource.setUsername(USERNAME);
+        dataSource.setPassword(PASSWORD);
+        return dataSource;
+    }
+
+    public static HikariDataSource hikari(int maximumPoolSize) {
+        HikariDataSource dataSource = hikari();
+        dataSource.setMaximumPoolSize(maximumPoolSize);
+        return dataSource;
+    }
+
+    public static HikariDataSource memberShard(String name) {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        dataSource.setUsername("sa");
+        JdbcTemplate template = new JdbcTemplate(dataSource);
+        template.execute("drop table member if exists");
+        template.execute("create table member(member_id varchar(10), money integer not null default 0," +
+                " version bigint not null default 0, primary key (member_id))");
+        return dataSource;
+    }
+}
@@ -0,0 +1,127 @@
+package hello.jdbc.connection;
+
+import com.zaxxer.hikari.HikariDataSource;
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepositoryV4_1;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static hello.jdbc.connection.ConnectionConst.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@Slf4j
+class ThreadAffinePoolDataSourceTest {
+    ThreadAffinePoolDataSource dataSource;
+
+    @AfterEach
+    void after() {
+        if (dataSource != null) {
+            dataSource.close();
+        }
+    }
+
+    @Test
+    void sameThreadReusesLastConnection() throws SQLException {
+        dataSource = new ThreadAffinePoolDataSource(URL, USERNAME, PASSWORD, 2, 1000);
+
+        Connection con1 = dataSource.getConnection();
+        Connection physical = con1.unwrap(Connection.class);
+        con1.close();
+        Connection con2 = dataSource.getConnection();
+
+        assertThat(con2.unwrap(Connection.class)).isSameAs(physical);
+        assertThat(dataSource.getThreadLocalHits()).isEqualTo(1);
+        con2.close();
+    }
+
+    @Test
+    void timeoutWhenExhausted() throws SQLException {
+        dataSource = new ThreadAffinePoolDataSource(URL, USERNAME, PASSWORD, 1, 100);
+
+        Connection con = dataSource.getConnection();
+        assertThatThrownBy(() -> dataSource.getConnection())
+                .isInstanceOf(SQLTimeoutException.class);
+        con.close();
+        assertThat(dataSource.getTotalConnections()).isEqualTo(1);
+    }
+
+    @Test
+    void repositoryDropIn() {
+        dataSource = new ThreadAffinePoolDataSource(URL, USERNAME, PASSWORD);
+        MemberRepositoryV4_1 repository = new MemberRepositoryV4_1(dataSource);
+
+        Member member = new Member("memberTa", 10000);
+        repository.save(member);
+        try {
+            assertThat(repository.findById(member.getMemberId())).isEqualTo(member);
+        } finally {
+            repository.delete(member.getMemberId());
+        }
+    }
+
+    /*
+    *   200개 스레드가 10개 커넥션을 나눠쓸 때 getConnection()에 걸리는 시간 비교
+    * */
+    @Test
+    @Tag("benchmark")
+    void borrowBenchmark() throws Exception {
+        dataSource = new ThreadAffinePoolDataSource(URL, USERNAME, PASSWORD, 10, 30_000);
+        HikariDataSource hikari = TestDataSources.hikari(10);
+        hikari.setConnectionTimeout(30_000);
+        try {
+            long hikariNanos = measureBorrow(hikari, 200, 200);
+            long affineNanos = measureBorrow(dataSource, 200, 200);
+            log.info("hikari       avg borrow={}ns", hikariNanos);
+            log.info("threadAffine avg borrow={}ns, threadLocalHits={}, sharedHits={}, waited={}",
+                    affineNanos, dataSource.getThreadLocalHits(), dataSource.getSharedHits(), dataSource.getWaited());
+        } finally {
+            hikari.close();
+        }
+    }
+
+    private long measureBorrow(DataSource ds, int threads, int iterations) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        LongAdder borrowNanos = new LongAdder();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < iterations; i++) {
+                    long begin = System.nanoTime();
+                    try (Connection con = ds.getConnection()) {
+                        borrowNanos.add(System.nanoTime() - begin);
+                        try (PreparedStatement pstmt = con.prepareStatement("select 1")) {
+                            pstmt.executeQuery().close();
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        return borrowNanos.sum() / ((long) threads * iterations);
+    }
+}
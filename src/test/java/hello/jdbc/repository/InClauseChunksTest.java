@@ -0,0 +1,34 @@
+package hello.jdbc.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class InClauseChunksTest {
+
+    @Test
+    void padToShape() {
+        List<List<String>> chunks = InClauseChunks.split(List.of("a", "b", "c", "b"));
+
+        // 중복 제거 후 3개 -> 4자리 청크, 남는 자리는 마지막 id
+        assertThat(chunks).containsExactly(List.of("a", "b", "c", "c"));
+    }
+
+    @Test
+    void splitLargeList() {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            ids.add("id" + i);
+        }
+
+        List<List<String>> chunks = InClauseChunks.split(ids);
+
+        assertThat(chunks).hasSize(2);
+        assertThat(chunks.get(0)).hasSize(256);
+        assertThat(chunks.get(1)).hasSize(64);
+        assertThat(InClauseChunks.placeholders(4)).isEqualTo("?, ?, ?, ?");
+    }
+}
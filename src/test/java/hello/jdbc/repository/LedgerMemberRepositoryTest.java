@@ -0,0 +1,178 @@
+package hello.jdbc.repository;
+
+import com.zaxxer.hikari.HikariDataSource;
+import hello.jdbc.connection.TestDataSources;
+import hello.jdbc.domain.Member;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/*
+*   sql/schema.sql의 transfer_ledger 테이블이 필요하다.
+* */
+@Slf4j
+class LedgerMemberRepositoryTest {
+    static final String PREFIX = "ldg";
+    static final int ACCOUNTS = 4;
+    static final int THREADS = 8;
+    static final int TRANSFERS_PER_THREAD = 200;
+
+    HikariDataSource dataSource;
+    MemberRepositoryV5 plain;
+    LedgerMemberRepository repository;
+    LedgerCompactor compactor;
+
+    @BeforeEach
+    void before() {
+        dataSource = TestDataSources.hikari(THREADS + 2);
+        plain = new MemberRepositoryV5(dataSource);
+        repository = new LedgerMemberRepository(plain, dataSource);
+        compactor = new LedgerCompactor(dataSource, 50, Duration.ofMillis(10));
+        for (int i = 0; i < ACCOUNTS; i++) {
+            plain.save(new Member(PREFIX + i, 10_000));
+        }
+    }
+
+    @AfterEach
+    void after() {
+        compactor.close();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            repository.delete(PREFIX + i);
+        }
+        dataSource.close();
+    }
+
+    @Test
+    void appendKeepsSnapshotAndBalanceIncludesTail() {
+        assertThat(repository.transferMoney(PREFIX + 0, PREFIX + 1, 3000)).isEqualTo(2);
+        assertThat(repository.addMoney(PREFIX + 1, 500)).isEqualTo(1);
+
+        // 스냅샷은 그대로, 잔액은 원장까지 더한 값
+        assertThat(plain.findById(PREFIX + 0).getMoney()).isEqualTo(10_000);
+        assertThat(repository.findById(PREFIX + 0).getMoney()).isEqualTo(7000);
+        assertThat(repository.findById(PREFIX + 1).getMoney()).isEqualTo(13_500);
+        assertThat(repository.findAllByIds(List.of(PREFIX + 0, PREFIX + 1)).get(PREFIX + 1).getMoney()).isEqualTo(13_500);
+        assertThat(repository.findPageAfter(PREFIX, 2)).extracting(Member::getMoney).containsExactly(7000, 13_500);
+
+        // 없는 회원에게는 원장 행이 생기지 않는다.
+        assertThat(repository.addMoney("ldgNone", 100)).isEqualTo(0);
+    }
+
+    @Test
+    void insufficientFundsCountsLedgerTail() {
+        repository.addMoney(PREFIX + 0, -9000);
+
+        assertThat(repository.addMoneyIfSufficient(PREFIX + 0, -1001)).isEqualTo(0);
+        // 잔액 부족 이체는 입금도 하지 않는다.
+        assertThat(repository.transferMoney(PREFIX + 0, PREFIX + 1, 1001)).isEqualTo(0);
+        assertThat(repository.findById(PREFIX + 1).getMoney()).isEqualTo(10_000);
+        assertThat(repository.addMoneyIfSufficient(PREFIX + 0, -1000)).isEqualTo(1);
+        assertThat(repository.findById(PREFIX + 0).getMoney()).isEqualTo(0);
+    }
+
+    @Test
+    void addMoneyAllAndRejectsAbsoluteWrites() {
+        Map<String, Integer> deltas = new LinkedHashMap<>();
+        deltas.put(PREFIX + 0, -20_000);
+        deltas.put(PREFIX + 1, 100);
+        deltas.put(PREFIX + 2, -100);
+        assertThat(repository.addMoneyAll(deltas)).containsExactly(0, 1, 1);
+
+        compactor.compactOnce();
+        assertThat(plain.findById(PREFIX + 1).getMoney()).isEqualTo(10_100);
+        assertThat(repository.findById(PREFIX + 2).getMoney()).isEqualTo(9900);
+
+        // 절대 금액 변경은 동시에 들어온 입금을 덮어쓸 수 있으므로 지원하지 않는다.
+        assertThatThrownBy(() -> repository.update(PREFIX + 1, 777))
+                .isInstanceOf(InvalidDataAccessApiUsageException.class);
+        assertThatThrownBy(() -> repository.updateIfVersion(PREFIX + 1, 777, 0))
+                .isInstanceOf(InvalidDataAccessApiUsageException.class);
+        assertThat(repository.findById(PREFIX + 1).getMoney()).isEqualTo(10_100);
+    }
+
+    @Test
+    void compactionFoldsLedgerIntoSnapshot() {
+        for (int i = 0; i < 120; i++) {
+            repository.transferMoney(PREFIX + (i % ACCOUNTS), PREFIX + ((i + 1) % ACCOUNTS), 10);
+        }
+        repository.addMoney(PREFIX + 0, 5);
+        long before = repository.findById(PREFIX + 0).getMoney();
+
+        int total = 0;
+        int folded;
+        while ((folded = compactor.compactOnce()) > 0) {
+            assertThat(folded).isLessThanOrEqualTo(50);
+            total += folded;
+        }
+
+        assertThat(total).isEqualTo(241);
+        assertThat(ledgerRows()).isEqualTo(0);
+        assertThat(plain.findById(PREFIX + 0).getMoney()).isEqualTo(before);
+        assertThat(repository.findById(PREFIX + 0).getMoney()).isEqualTo(before);
+    }
+
+    /*
+    *   백그라운드 압축과 동시 이체. 잔액 합계가 바뀌지 않고, 끝난 뒤 원장을 모두 합치면 스냅샷과 같아야 한다.
+    *   처리량은 로그로만 남긴다.
+    * */
+    @Test
+    void concurrentTransfersWhileCompacting() throws Exception {
+        compactor.start();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int offset = t;
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+                    String fromId = PREFIX + ((offset + i) % ACCOUNTS);
+                    String toId = PREFIX + ((offset + i + 1) % ACCOUNTS);
+                    repository.transferMoney(fromId, toId, 1);
+                }
+                return null;
+            }));
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long elapsed = System.nanoTime() - begin;
+        executor.shutdown();
+        compactor.close();
+        while (compactor.compactOnce() > 0) {
+        }
+
+        log.info("ledger transfers {} tps, compacted={}",
+                THREADS * TRANSFERS_PER_THREAD * 1_000_000_000L / elapsed, compactor.getCompactedCount());
+        assertThat(ledgerRows()).isEqualTo(0);
+        long total = 0;
+        for (int i = 0; i < ACCOUNTS; i++) {
+            assertThat(plain.findById(PREFIX + i).getMoney()).isEqualTo(repository.findById(PREFIX + i).getMoney());
+            total += repository.findById(PREFIX + i).getMoney();
+        }
+        assertThat(total).isEqualTo(10_000L * ACCOUNTS);
+    }
+
+    private int ledgerRows() {
+        return new JdbcTemplate(dataSource).queryForObject(
+                "select count(*) from transfer_ledger where member_id like 'ldg%'", Integer.class);
+    }
+}
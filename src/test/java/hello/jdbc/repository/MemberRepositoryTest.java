@@ -0,0 +1,253 @@
+package hello.jdbc.repository;
+
+import com.zaxxer.hikari.HikariDataSource;
+import hello.jdbc.connection.TestDataSources;
+import hello.jdbc.domain.Member;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/*
+*   MemberRepository 인터페이스 구현체(V4_1, V4_2, V5) 공통 테스트
+* */
+@Slf4j
+class MemberRepositoryTest {
+    static final String PREFIX = "mrt";
+    static HikariDataSource dataSource = TestDataSources.hikari();
+
+    static Stream<MemberRepository> repositories() {
+        MemberRepositoryV4_1 v4_1 = new MemberRepositoryV4_1(dataSource);
+        MemberRepositoryV4_2 v4_2 = new MemberRepositoryV4_2(dataSource);
+        MemberRepositoryV5 v5 = new MemberRepositoryV5(dataSource);
+        // 청크 경계를 테스트하기 위해 작은 배치 크기를 사용한다.
+        v4_1.setBatchSize(10);
+        v4_2.setBatchSize(10);
+        v5.setBatchSize(10);
+        return Stream.of(v4_1, v4_2, v5);
+    }
+
+    @AfterEach
+    void after() {
+        new JdbcTemplate(dataSource).update("delete from member where member_id like ?", PREFIX + "%");
+    }
+
+    @AfterAll
+    static void close() {
+        dataSource.close();
+    }
+
+    @ParameterizedTest
+    @MethodSource("repositories")
+    void saveAll(MemberRepository repository) {
+        List<Member> members = members(25);
+
+        repository.saveAll(members);
+
+        for (Member member : members) {
+            assertThat(repository.findById(member.getMemberId())).isEqualTo(member);
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("repositories")
+    void updateAll(MemberRepository repository) {
+        List<Member> members = members(15);
+        repository.saveAll(members);
+        Map<String, Integer> moneyByMemberId = new LinkedHashMap<>();
+        for (Member member : members) {
+            moneyByMemberId.put(member.getMemberId(), member.getMoney() * 2);
+        }
+        moneyByMemberId.put(PREFIX + "none", 0);
+
+        int[] counts = repository.updateAll(moneyByMemberId);
+
+        // 마지막(없는 회원)만 0 건
+        assertThat(counts).hasSize(16);
+        assertThat(counts[15]).isEqualTo(0);
+        for (int i = 0; i < members.size(); i++) {
+            assertThat(counts[i]).isEqualTo(1);
+            Member member = members.get(i);
+            assertThat(repository.findById(member.getMemberId()).getMoney()).isEqualTo(member.getMoney() * 2);
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("repositories")
+    void findAllByIds(MemberRepository repository) {
+        List<Member> members = members(70);
+        repository.saveAll(members);
+        List<String> ids = new ArrayList<>();
+        for (Member member : members) {
+            ids.add(member.getMemberId());
+        }
+        ids.add(PREFIX + "none");
+        ids.add(members.get(0).getMemberId()); // 중복 id
+
+        Map<String, Member> result = repository.findAllByIds(ids);
+
+        assertThat(result).hasSize(70);
+        assertThat(result).doesNotContainKey(PREFIX + "none");
+        for (Member member : members) {
+            assertThat(result.get(member.getMemberId())).isEqualTo(member);
+        }
+        assertThat(repository.findAllByIds(List.of())).isEmpty();
+    }
+
+    @ParameterizedTest
+    @MethodSource("repositories")
+    void streamAll(MemberRepository repository) {
+        List<Member> members = members(30);
+        repository.saveAll(members);
+
+        List<Member> streamed;
+        try (Stream<Member> stream = repository.streamAll()) {
+            streamed = stream.filter(member -> member.getMemberId().startsWith(PREFIX))
+                    .collect(Collectors.toList());
+        }
+        List<Member> pushed = new ArrayList<>();
+        repository.forEachMember(member -> {
+            if (member.getMemberId().startsWith(PREFIX)) {
+                pushed.add(member);
+            }
+        });
+
+        assertThat(streamed).containsExactlyInAnyOrderElementsOf(members);
+        assertThat(pushed).containsExactlyInAnyOrderElementsOf(members);
+        // 스트림을 닫으면 커넥션이 풀에 반납된다.
+        assertThat(dataSource.getHikariPoolMXBean().getActiveConnections()).isZero();
+    }
+
+    @ParameterizedTest
+    @MethodSource("repositories")
+    void keysetPaging(MemberRepository repository) {
+        List<Member> members = members(25);
+        repository.saveAll(members);
+        List<String> expected = new ArrayList<>();
+        for (Member member : members) {
+            expected.add(member.getMemberId());
+        }
+        Collections.sort(expected);
+
+        // 다른 데이터와 섞이지 않도록 PREFIX 바로 앞에서 시작한다.
+        List<String> ascending = new ArrayList<>();
+        String last = PREFIX;
+        List<Member> page;
+        while (!(page = repository.findPageAfter(last, 10)).isEmpty()
+                && page.get(0).getMemberId().startsWith(PREFIX)) {
+            for (Member member : page) {
+                if (member.getMemberId().startsWith(PREFIX)) {
+                    ascending.add(member.getMemberId());
+                }
+            }
+            last = page.get(page.size() - 1).getMemberId();
+        }
+        assertThat(ascending).isEqualTo(expected);
+
+        List<Member> descending = repository.findPageBefore(PREFIX + "~", 3);
+        assertThat(descending).extracting(Member::getMemberId)
+                .containsExactly(expected.get(24), expected.get(23), expected.get(22));
+        assertThat(repository.findPageAfter(null, 1)).hasSizeLessThanOrEqualTo(1);
+    }
+
+    @ParameterizedTest
+    @MethodSource("repositories")
+    void addMoney(MemberRepository repository) {
+        Member member = new Member(PREFIX + "add", 1000);
+        repository.save(member);
+
+        assertThat(repository.addMoney(member.getMemberId(), 500)).isEqualTo(1);
+        assertThat(repository.addMoneyIfSufficient(member.getMemberId(), -1500)).isEqualTo(1);
+        assertThat(repository.addMoneyIfSufficient(member.getMemberId(), -1)).isEqualTo(0);
+        assertThat(repository.addMoney(PREFIX + "none", 500)).isEqualTo(0);
+        assertThat(repository.findById(member.getMemberId()).getMoney()).isEqualTo(0);
+    }
+
+    @ParameterizedTest
+    @MethodSource("repositories")
+    void addMoneyAll(MemberRepository repository) {
+        List<Member> members = members(15);
+        repository.saveAll(members);
+        Map<String, Integer> deltaByMemberId = new LinkedHashMap<>();
+        for (Member member : members) {
+            deltaByMemberId.put(member.getMemberId(), 100);
+        }
+        deltaByMemberId.put(members.get(0).getMemberId(), -100_000); // 잔액 부족
+        deltaByMemberId.put(PREFIX + "none", 100);
+
+        int[] counts = repository.addMoneyAll(deltaByMemberId);
+
+        assertThat(counts).hasSize(16);
+        assertThat(counts[0]).isEqualTo(0);
+        assertThat(counts[15]).isEqualTo(0);
+        assertThat(repository.findById(members.get(0).getMemberId()).getMoney()).isEqualTo(members.get(0).getMoney());
+        for (int i = 1; i < members.size(); i++) {
+            assertThat(counts[i]).isEqualTo(1);
+            Member member = members.get(i);
+            assertThat(repository.findById(member.getMemberId()).getMoney()).isEqualTo(member.getMoney() + 100);
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("repositories")
+    void updateIfVersion(MemberRepository repository) {
+        Member member = new Member(PREFIX + "ver", 1000);
+        repository.save(member);
+        long version = repository.findById(member.getMemberId()).getVersion();
+
+        assertThat(repository.updateIfVersion(member.getMemberId(), 2000, version)).isEqualTo(1);
+        // 이미 바뀐 버전으로는 변경되지 않는다.
+        assertThat(repository.updateIfVersion(member.getMemberId(), 3000, version)).isEqualTo(0);
+        // 다른 변경 SQL도 버전을 올린다.
+        repository.addMoney(member.getMemberId(), 100);
+
+        Member findMember = repository.findById(member.getMemberId());
+        assertThat(findMember.getMoney()).isEqualTo(2100);
+        assertThat(findMember.getVersion()).isEqualTo(version + 2);
+    }
+
+    @ParameterizedTest
+    @MethodSource("repositories")
+    void transferMoney(MemberRepository repository) {
+        repository.save(new Member(PREFIX + "from", 1000));
+        repository.save(new Member(PREFIX + "to", 1000));
+
+        assertThat(repository.transferMoney(PREFIX + "from", PREFIX + "to", 400)).isEqualTo(2);
+        // 없는 회원에게 이체 : 출금 행만 변경된다. (호출하는 쪽이 롤백해야 한다.)
+        assertThat(repository.transferMoney(PREFIX + "from", PREFIX + "none", 400)).isEqualTo(1);
+        assertThat(repository.findById(PREFIX + "from").getMoney()).isEqualTo(200);
+        assertThat(repository.findById(PREFIX + "to").getMoney()).isEqualTo(1400);
+    }
+
+    @ParameterizedTest
+    @MethodSource("repositories")
+    void transferMoneyInsufficient(MemberRepository repository) {
+        repository.save(new Member(PREFIX + "from", 300));
+        repository.save(new Member(PREFIX + "to", 1000));
+
+        // 잔액 부족 : 두 행 모두 변경되지 않는다.
+        assertThat(repository.transferMoney(PREFIX + "from", PREFIX + "to", 400)).isEqualTo(0);
+        assertThat(repository.findById(PREFIX + "from").getMoney()).isEqualTo(300);
+        assertThat(repository.findById(PREFIX + "to").getMoney()).isEqualTo(1000);
+    }
+
+    static List<Member> members(int count) {
+        List<Member> members = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            members.add(new Member(PREFIX + i, 1000 + i));
+        }
+        return members;
+    }
+}
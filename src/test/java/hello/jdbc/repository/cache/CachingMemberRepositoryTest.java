@@ -0,0 +1,92 @@
+package hello.jdbc.repository.cache;
+
+import com.zaxxer.hikari.HikariDataSource;
+import hello.jdbc.connection.TestDataSources;
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepositoryV5;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CachingMemberRepositoryTest {
+    static final String MEMBER_A = "cacheA";
+    static final String MEMBER_B = "cacheB";
+
+    HikariDataSource dataSource;
+    CachingMemberRepository repository;
+    TransactionTemplate txTemplate;
+
+    @BeforeEach
+    void before() {
+        dataSource = TestDataSources.hikari();
+        repository = new CachingMemberRepository(new MemberRepositoryV5(dataSource));
+        txTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+    }
+
+    @AfterEach
+    void after() {
+        repository.delete(MEMBER_A);
+        repository.delete(MEMBER_B);
+        dataSource.close();
+    }
+
+    @Test
+    void readThroughAndInvalidate() {
+        repository.save(new Member(MEMBER_A, 10000));
+
+        repository.findById(MEMBER_A);
+        repository.findById(MEMBER_A);
+        assertThat(repository.getCache().getHitCount()).isEqualTo(1);
+        assertThat(repository.getCache().getMissCount()).isEqualTo(1);
+
+        // 변경하면 캐시에서 지워지고 다음 조회는 DB의 새 값을 읽는다.
+        repository.addMoney(MEMBER_A, 500);
+        assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(10500);
+        assertThat(repository.getCache().getMissCount()).isEqualTo(2);
+    }
+
+    @Test
+    void findAllByIdsUsesCache() {
+        repository.save(new Member(MEMBER_A, 10000));
+        repository.save(new Member(MEMBER_B, 20000));
+        repository.findById(MEMBER_A);
+
+        Map<String, Member> result = repository.findAllByIds(List.of(MEMBER_A, MEMBER_B));
+
+        assertThat(result).containsOnlyKeys(MEMBER_A, MEMBER_B);
+        assertThat(repository.getCache().getHitCount()).isEqualTo(1);
+        assertThat(repository.getCache().size()).isEqualTo(2);
+    }
+
+    @Test
+    void rollbackDoesNotLeakIntoCache() {
+        repository.save(new Member(MEMBER_A, 10000));
+        repository.findById(MEMBER_A);
+
+        txTemplate.executeWithoutResult(status -> {
+            repository.update(MEMBER_A, 8000);
+            // 트랜잭션 안에서는 자기가 변경한 값을 읽는다.
+            assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(8000);
+            status.setRollbackOnly();
+        });
+
+        assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(10000);
+    }
+
+    @Test
+    void commitInvalidatesCache() {
+        repository.save(new Member(MEMBER_A, 10000));
+        repository.findById(MEMBER_A);
+
+        txTemplate.executeWithoutResult(status -> repository.update(MEMBER_A, 8000));
+
+        assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(8000);
+    }
+}
@@ -0,0 +1,66 @@
+package hello.jdbc.repository.cache;
+
+import com.zaxxer.hikari.HikariDataSource;
+import hello.jdbc.connection.TestDataSources;
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepositoryV5;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IdentityMapMemberRepositoryTest {
+    static final String MEMBER_A = "identityA";
+
+    HikariDataSource dataSource;
+    IdentityMapMemberRepository repository;
+    TransactionTemplate txTemplate;
+
+    @BeforeEach
+    void before() {
+        dataSource = TestDataSources.hikari();
+        repository = new IdentityMapMemberRepository(new MemberRepositoryV5(dataSource));
+        txTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        repository.save(new Member(MEMBER_A, 10000));
+    }
+
+    @AfterEach
+    void after() {
+        repository.delete(MEMBER_A);
+        dataSource.close();
+    }
+
+    @Test
+    void sameInstanceInTransaction() {
+        txTemplate.executeWithoutResult(status -> {
+            Member first = repository.findById(MEMBER_A);
+            Member second = repository.findById(MEMBER_A);
+            assertThat(second).isSameAs(first);
+
+            // 변경하면 이미 읽은 인스턴스에도 반영된다.
+            repository.addMoney(MEMBER_A, 500);
+            assertThat(first.getMoney()).isEqualTo(10500);
+            repository.update(MEMBER_A, 7000);
+            assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(7000);
+        });
+    }
+
+    @Test
+    void noCachingOutsideTransaction() {
+        Member first = repository.findById(MEMBER_A);
+        Member second = repository.findById(MEMBER_A);
+
+        assertThat(second).isNotSameAs(first);
+    }
+
+    @Test
+    void discardedAfterTransaction() {
+        Member inTx = txTemplate.execute(status -> repository.findById(MEMBER_A));
+        Member nextTx = txTemplate.execute(status -> repository.findById(MEMBER_A));
+
+        assertThat(nextTx).isNotSameAs(inTx);
+    }
+}
@@ -0,0 +1,56 @@
+package hello.jdbc.repository.cache;
+
+import hello.jdbc.domain.Member;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MemberCacheTest {
+
+    @Test
+    void lruEviction() {
+        MemberCache cache = new MemberCache(2, Duration.ofMinutes(1));
+        cache.putIfValid(new Member("a", 1), cache.stamp());
+        cache.putIfValid(new Member("b", 2), cache.stamp());
+        cache.get("a"); // a를 최근 사용으로
+        cache.putIfValid(new Member("c", 3), cache.stamp());
+
+        assertThat(cache.get("b")).isNull();
+        assertThat(cache.get("a")).isEqualTo(new Member("a", 1));
+        assertThat(cache.getEvictionCount()).isEqualTo(1);
+        assertThat(cache.getHitCount()).isEqualTo(2);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    void ttlExpiration() throws InterruptedException {
+        MemberCache cache = new MemberCache(10, Duration.ofMillis(10));
+        cache.putIfValid(new Member("a", 1), cache.stamp());
+        Thread.sleep(20);
+
+        assertThat(cache.get("a")).isNull();
+        assertThat(cache.getEvictionCount()).isEqualTo(1);
+    }
+
+    @Test
+    void staleLoadIsNotCached() {
+        MemberCache cache = new MemberCache(10, Duration.ofMinutes(1));
+        long stamp = cache.stamp();
+        // DB에서 읽는 사이에 다른 스레드가 변경하고 무효화 했다.
+        cache.invalidate("a");
+        cache.putIfValid(new Member("a", 1), stamp);
+
+        assertThat(cache.get("a")).isNull();
+    }
+
+    @Test
+    void returnsCopy() {
+        MemberCache cache = new MemberCache(10, Duration.ofMinutes(1));
+        cache.putIfValid(new Member("a", 1), cache.stamp());
+        cache.get("a").setMoney(100);
+
+        assertThat(cache.get("a").getMoney()).isEqualTo(1);
+    }
+}
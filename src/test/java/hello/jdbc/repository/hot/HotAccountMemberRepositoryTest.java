@@ -0,0 +1,212 @@
+package hello.jdbc.repository.hot;
+
+import com.zaxxer.hikari.HikariDataSource;
+import hello.jdbc.connection.TestDataSources;
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepository;
+import hello.jdbc.repository.MemberRepositoryV5;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/*
+*   sql/schema.sql의 member_stripe 테이블이 필요하다.
+* */
+@Slf4j
+class HotAccountMemberRepositoryTest {
+    static final String MERCHANT = "hotM";
+    static final String PAYER_PREFIX = "hotP";
+    static final int THREADS = 16;
+    static final int TRANSFERS_PER_THREAD = 100;
+
+    HikariDataSource dataSource;
+    MemberRepositoryV5 plain;
+    HotAccountMemberRepository repository;
+    TransactionTemplate txTemplate;
+
+    @BeforeEach
+    void before() {
+        dataSource = TestDataSources.hikari(THREADS);
+        plain = new MemberRepositoryV5(dataSource);
+        repository = new HotAccountMemberRepository(plain, dataSource, 8);
+        txTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        plain.save(new Member(MERCHANT, 1000));
+        for (int i = 0; i < THREADS; i++) {
+            plain.save(new Member(PAYER_PREFIX + i, 1_000_000));
+        }
+    }
+
+    @AfterEach
+    void after() {
+        repository.delete(MERCHANT);
+        for (int i = 0; i < THREADS; i++) {
+            plain.delete(PAYER_PREFIX + i);
+        }
+        dataSource.close();
+    }
+
+    @Test
+    void creditsSpreadAndBalanceSums() {
+        repository.markHot(MERCHANT);
+        for (int i = 0; i < 40; i++) {
+            assertThat(repository.addMoney(MERCHANT, 100)).isEqualTo(1);
+        }
+
+        // 기본 행은 그대로, 입금은 stripe 행에 나뉘어 있다.
+        assertThat(plain.findById(MERCHANT).getMoney()).isEqualTo(1000);
+        assertThat(repository.findById(MERCHANT).getMoney()).isEqualTo(5000);
+        Integer usedStripes = new JdbcTemplate(dataSource).queryForObject(
+                "select count(*) from member_stripe where member_id=? and money > 0", Integer.class, MERCHANT);
+        assertThat(usedStripes).isGreaterThan(1);
+    }
+
+    @Test
+    void debitPullsAcrossStripes() {
+        repository.markHot(MERCHANT);
+        for (int i = 0; i < 40; i++) {
+            repository.addMoney(MERCHANT, 100);
+        }
+
+        // 기본 행(1000)보다 큰 출금 -> stripe 잔액을 모아서 뺀다.
+        assertThat(repository.addMoneyIfSufficient(MERCHANT, -4500)).isEqualTo(1);
+        assertThat(repository.findById(MERCHANT).getMoney()).isEqualTo(500);
+        // 잔액 부족
+        assertThat(repository.addMoneyIfSufficient(MERCHANT, -501)).isEqualTo(0);
+        assertThat(repository.findById(MERCHANT).getMoney()).isEqualTo(500);
+
+        // 이체 SQL도 같은 규칙을 따른다.
+        assertThat(repository.transferMoney(PAYER_PREFIX + 0, MERCHANT, 300)).isEqualTo(2);
+        assertThat(repository.transferMoney(MERCHANT, PAYER_PREFIX + 0, 800)).isEqualTo(2);
+        assertThat(repository.findById(MERCHANT).getMoney()).isEqualTo(0);
+    }
+
+    @Test
+    void unmarkHotFoldsStripes() {
+        repository.markHot(MERCHANT);
+        repository.addMoney(MERCHANT, 700);
+
+        repository.unmarkHot(MERCHANT);
+
+        assertThat(repository.isHot(MERCHANT)).isFalse();
+        assertThat(plain.findById(MERCHANT).getMoney()).isEqualTo(1700);
+    }
+
+    @Test
+    void unmarkHotKeepsConcurrentCredits() throws Exception {
+        repository.markHot(MERCHANT);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < 100; i++) {
+                    assertThat(repository.addMoney(MERCHANT, 1)).isEqualTo(1);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        repository.unmarkHot(MERCHANT);
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        // 접어 넣는 중에 들어온 입금도 사라지지 않는다.
+        assertThat(plain.findById(MERCHANT).getMoney()).isEqualTo(1000 + 400);
+        Integer stripeRows = new JdbcTemplate(dataSource).queryForObject(
+                "select count(*) from member_stripe where member_id=?", Integer.class, MERCHANT);
+        assertThat(stripeRows).isEqualTo(0);
+    }
+
+    @Test
+    void lockedReadBlocksStripeCredits() throws Exception {
+        repository.markHot(MERCHANT);
+        repository.addMoney(MERCHANT, 100);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        AtomicReference<Future<Integer>> credit = new AtomicReference<>();
+
+        txTemplate.executeWithoutResult(status -> {
+            Member member = repository.findByIdForUpdate(MERCHANT);
+            assertThat(member.getMoney()).isEqualTo(1100);
+            credit.set(executor.submit(() -> repository.addMoney(MERCHANT, 50)));
+            sleep(200);
+            // stripe 행이 잠겨 있으므로 입금은 커밋까지 기다린다.
+            assertThat(credit.get().isDone()).isFalse();
+            repository.update(MERCHANT, member.getMoney() - 300);
+        });
+
+        assertThat(credit.get().get()).isEqualTo(1);
+        executor.shutdown();
+        // 읽은 잔액으로 덮어써도 기다리던 입금이 사라지지 않는다.
+        assertThat(repository.findById(MERCHANT).getMoney()).isEqualTo(1100 - 300 + 50);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+    *   여러 지불자가 한 가맹점에 동시에 이체 (출금 + 입금을 트랜잭션 하나로)
+    *   가맹점 행 락은 커밋까지 유지되므로 일반 회원이면 모든 이체가 한 행에서 줄을 선다.
+    *   결과는 로그로만 남긴다.
+    * */
+    @Test
+    @Tag("benchmark")
+    void contentionBenchmark() throws Exception {
+        long plainNanos = run(plain);
+        repository.markHot(MERCHANT);
+        long hotNanos = run(repository);
+
+        int total = THREADS * TRANSFERS_PER_THREAD;
+        log.info("single row {} tps, {} stripes {} tps",
+                total * 1_000_000_000L / plainNanos, 8, total * 1_000_000_000L / hotNanos);
+        assertThat(repository.findById(MERCHANT).getMoney()).isEqualTo(1000 + 2 * total);
+    }
+
+    private long run(MemberRepository target) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            String payer = PAYER_PREFIX + t;
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+                    txTemplate.executeWithoutResult(status -> {
+                        target.addMoneyIfSufficient(payer, -1);
+                        target.addMoney(MERCHANT, 1);
+                    });
+                }
+                return null;
+            }));
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        return System.nanoTime() - begin;
+    }
+}
@@ -0,0 +1,143 @@
+package hello.jdbc.repository.outbox;
+
+import com.zaxxer.hikari.HikariDataSource;
+import hello.jdbc.connection.TestDataSources;
+import hello.jdbc.domain.Member;
+import hello.jdbc.domain.MemberChangeEvent;
+import hello.jdbc.domain.MemberChangeEvent.Type;
+import hello.jdbc.repository.MemberRepositoryV5;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+
+/*
+*   sql/schema.sql의 member_outbox 테이블이 필요하다.
+* */
+class OutboxMemberRepositoryTest {
+    static final String MEMBER_A = "obxA";
+    static final String MEMBER_B = "obxB";
+
+    HikariDataSource dataSource;
+    MemberRepositoryV5 plain;
+    OutboxMemberRepository repository;
+    List<List<MemberChangeEvent>> received;
+
+    @BeforeEach
+    void before() {
+        dataSource = TestDataSources.hikari();
+        plain = new MemberRepositoryV5(dataSource);
+        repository = new OutboxMemberRepository(plain, dataSource);
+        received = new ArrayList<>();
+        new JdbcTemplate(dataSource).update("delete from member_outbox");
+    }
+
+    @AfterEach
+    void after() {
+        plain.delete(MEMBER_A);
+        plain.delete(MEMBER_B);
+        new JdbcTemplate(dataSource).update("delete from member_outbox");
+        dataSource.close();
+    }
+
+    @Test
+    void mutationsWriteEventsInOrder() {
+        repository.save(new Member(MEMBER_A, 1000));
+        repository.save(new Member(MEMBER_B, 1000));
+        repository.update(MEMBER_A, 2000);
+        assertThat(repository.transferMoney(MEMBER_A, MEMBER_B, 500)).isEqualTo(2);
+        // 변경이 없으면 이벤트도 없다.
+        assertThat(repository.addMoneyIfSufficient(MEMBER_A, -100_000)).isEqualTo(0);
+        assertThat(repository.updateIfVersion(MEMBER_B, 0, 999)).isEqualTo(0);
+        repository.delete(MEMBER_B);
+
+        List<MemberChangeEvent> events = drainAll(2);
+        assertThat(events).extracting("memberId", "type", "money")
+                .containsExactly(
+                        tuple(MEMBER_A, Type.SAVE, 1000),
+                        tuple(MEMBER_B, Type.SAVE, 1000),
+                        tuple(MEMBER_A, Type.UPDATE, 2000),
+                        tuple(MEMBER_A, Type.UPDATE, 1500),
+                        tuple(MEMBER_B, Type.UPDATE, 1500),
+                        tuple(MEMBER_B, Type.DELETE, 1500));
+        // DELETE의 version은 마지막 변경보다 크다. (version으로 중복을 걸러도 버려지지 않는다.)
+        assertThat(events.get(5).getVersion()).isEqualTo(events.get(4).getVersion() + 1);
+        // 페이지 크기 2로 나눠서 보내고, 보낸 행은 지운다.
+        assertThat(received).hasSize(3);
+        assertThat(outboxRows()).isEqualTo(0);
+    }
+
+    @Test
+    void rollbackDiscardsEvents() {
+        repository.save(new Member(MEMBER_A, 1000));
+        TransactionTemplate txTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+
+        assertThatThrownBy(() -> txTemplate.executeWithoutResult(status -> {
+            repository.addMoney(MEMBER_A, 300);
+            throw new IllegalStateException("rollback");
+        })).isInstanceOf(IllegalStateException.class);
+
+        assertThat(drainAll(10)).extracting("type").containsExactly(Type.SAVE);
+        assertThat(plain.findById(MEMBER_A).getMoney()).isEqualTo(1000);
+    }
+
+    @Test
+    void batchMutationsPublishChangedRowsOnly() {
+        repository.save(new Member(MEMBER_A, 1000));
+        drainAll(10);
+
+        Map<String, Integer> deltas = new LinkedHashMap<>();
+        deltas.put(MEMBER_A, -300);
+        deltas.put(MEMBER_B, 100);
+        assertThat(repository.addMoneyAll(deltas)).containsExactly(1, 0);
+
+        assertThat(drainAll(10)).extracting("memberId", "money", "version")
+                .containsExactly(tuple(MEMBER_A, 700, 1L));
+    }
+
+    @Test
+    void failedSinkKeepsEventsForNextDrain() {
+        repository.save(new Member(MEMBER_A, 1000));
+        repository.update(MEMBER_A, 1100);
+        AtomicBoolean fail = new AtomicBoolean(true);
+        OutboxRelay relay = new OutboxRelay(dataSource, events -> {
+            if (fail.get()) {
+                throw new IllegalStateException("sink down");
+            }
+            received.add(events);
+        }, 10, Duration.ofMillis(10));
+
+        assertThatThrownBy(relay::drainOnce).isInstanceOf(IllegalStateException.class);
+        assertThat(outboxRows()).isEqualTo(2);
+
+        fail.set(false);
+        assertThat(relay.drainOnce()).isEqualTo(2);
+        assertThat(outboxRows()).isEqualTo(0);
+    }
+
+    private List<MemberChangeEvent> drainAll(int batchSize) {
+        received.clear();
+        OutboxRelay relay = new OutboxRelay(dataSource, received::add, batchSize, Duration.ofMillis(10));
+        relay.drainOnce();
+        List<MemberChangeEvent> events = new ArrayList<>();
+        received.forEach(events::addAll);
+        return events;
+    }
+
+    private int outboxRows() {
+        return new JdbcTemplate(dataSource).queryForObject("select count(*) from member_outbox", Integer.class);
+    }
+}
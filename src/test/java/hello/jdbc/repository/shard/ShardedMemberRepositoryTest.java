@@ -0,0 +1,172 @@
+package hello.jdbc.repository.shard;
+
+import com.zaxxer.hikari.HikariDataSource;
+import hello.jdbc.connection.TestDataSources;
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepositoryV4_2;
+import hello.jdbc.repository.MemberRepositoryV5;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/*
+*   샤드마다 별도의 H2 메모리 DB를 쓴다. (TCP 서버 없이 실행된다.)
+* */
+class ShardedMemberRepositoryTest {
+    static final int SHARDS = 3;
+    static final int MEMBERS = 300;
+
+    List<HikariDataSource> dataSources = new ArrayList<>();
+    ShardedMemberRepository repository;
+
+    @BeforeEach
+    void before() {
+        for (int i = 0; i < SHARDS; i++) {
+            HikariDataSource dataSource = TestDataSources.memberShard("shard" + i);
+            dataSources.add(dataSource);
+        }
+        repository = new ShardedMemberRepository(new ArrayList<>(dataSources), MemberRepositoryV5::new);
+        List<Member> members = new ArrayList<>();
+        for (int i = 0; i < MEMBERS; i++) {
+            members.add(new Member(id(i), 1000));
+        }
+        repository.saveAll(members);
+    }
+
+    @AfterEach
+    void after() {
+        repository.close();
+        dataSources.forEach(HikariDataSource::close);
+    }
+
+    @Test
+    void routesEachMemberToOneShard() {
+        for (int shard = 0; shard < SHARDS; shard++) {
+            int count = new JdbcTemplate(repository.dataSource(shard))
+                    .queryForObject("select count(*) from member", Integer.class);
+            // 가상 노드 덕분에 어느 샤드도 크게 치우치지 않는다.
+            assertThat(count).isBetween(MEMBERS / SHARDS / 2, MEMBERS / SHARDS * 2);
+        }
+        String memberId = id(7);
+        assertThat(repository.shard(repository.shardIndex(memberId)).findById(memberId).getMoney()).isEqualTo(1000);
+
+        repository.update(memberId, 5000);
+        assertThat(repository.addMoneyIfSufficient(memberId, -6000)).isEqualTo(0);
+        assertThat(repository.addMoney(memberId, 100)).isEqualTo(1);
+        assertThat(repository.findById(memberId).getMoney()).isEqualTo(5100);
+    }
+
+    @Test
+    void fanOutReadsMergeAcrossShards() {
+        List<String> ids = List.of(id(1), id(50), id(150), id(299), "shNone");
+        Map<String, Member> found = repository.findAllByIds(ids);
+        assertThat(found).containsOnlyKeys(id(1), id(50), id(150), id(299));
+
+        // 키셋 페이지를 이어 읽으면 전체 회원이 member_id 순서로 한번씩 나온다.
+        List<String> paged = new ArrayList<>();
+        String last = null;
+        List<Member> page;
+        while (!(page = repository.findPageAfter(last, 40)).isEmpty()) {
+            page.forEach(member -> paged.add(member.getMemberId()));
+            last = page.get(page.size() - 1).getMemberId();
+        }
+        List<String> sorted = new ArrayList<>(paged);
+        Collections.sort(sorted);
+        assertThat(paged).hasSize(MEMBERS).isEqualTo(sorted);
+        assertThat(repository.findPageBefore(null, 3)).extracting(Member::getMemberId)
+                .containsExactly(id(299), id(298), id(297));
+
+        Set<String> visited = new HashSet<>();
+        repository.forEachMember(member -> visited.add(member.getMemberId()));
+        assertThat(visited).hasSize(MEMBERS);
+        try (Stream<Member> stream = repository.streamAll()) {
+            assertThat(stream.mapToLong(Member::getMoney).sum()).isEqualTo(1000L * MEMBERS);
+        }
+    }
+
+    @Test
+    void forEachMemberRunsActionOnCallerThread() {
+        Thread caller = Thread.currentThread();
+        List<String> ids = List.of(id(1), id(50), id(150), id(299));
+        int[] visited = new int[1];
+        repository.forEachMember(member -> {
+            assertThat(Thread.currentThread()).isSameAs(caller);
+            // action 안에서 다시 여러 샤드를 조회해도 멈추지 않는다.
+            if (visited[0]++ % 50 == 0) {
+                assertThat(repository.findAllByIds(ids)).hasSize(4);
+            }
+        });
+        assertThat(visited[0]).isEqualTo(MEMBERS);
+    }
+
+    @Test
+    void batchWritesKeepInputOrder() {
+        Map<String, Integer> deltas = new LinkedHashMap<>();
+        for (int i = 0; i < 20; i++) {
+            deltas.put(id(i), i % 2 == 0 ? -2000 : 10);
+        }
+        deltas.put("shNone", 10);
+        int[] counts = repository.addMoneyAll(deltas);
+
+        for (int i = 0; i < 20; i++) {
+            assertThat(counts[i]).isEqualTo(i % 2 == 0 ? 0 : 1);
+        }
+        assertThat(counts[20]).isEqualTo(0);
+        assertThat(repository.findById(id(1)).getMoney()).isEqualTo(1010);
+    }
+
+    @Test
+    void transferMoneyOnlyWithinShard() {
+        String fromId = id(0);
+        String sameShard = null;
+        String otherShard = null;
+        for (int i = 1; i < MEMBERS && (sameShard == null || otherShard == null); i++) {
+            if (repository.shardIndex(id(i)) == repository.shardIndex(fromId)) {
+                sameShard = id(i);
+            } else {
+                otherShard = id(i);
+            }
+        }
+
+        assertThat(repository.transferMoney(fromId, sameShard, 300)).isEqualTo(2);
+        String to = otherShard;
+        assertThatThrownBy(() -> repository.transferMoney(fromId, to, 300))
+                .isInstanceOf(InvalidDataAccessApiUsageException.class);
+    }
+
+    @Test
+    void addingShardMovesAboutOneNth() {
+        List<DataSource> three = new ArrayList<>(dataSources);
+        List<DataSource> four = new ArrayList<>(dataSources);
+        four.add(dataSources.get(0));
+        try (ShardedMemberRepository before = new ShardedMemberRepository(three, MemberRepositoryV4_2::new);
+             ShardedMemberRepository after = new ShardedMemberRepository(four, MemberRepositoryV4_2::new)) {
+            List<String> keys = Stream.iterate(0, i -> i + 1).limit(10_000).map(i -> "k" + i).collect(Collectors.toList());
+            long moved = keys.stream().filter(k -> before.shardIndex(k) != after.shardIndex(k)).count();
+            // 이상적으로는 1/4. 옮겨진 키는 모두 새 샤드로 간다.
+            assertThat(moved).isBetween(1500L, 3500L);
+            assertThat(keys.stream().filter(k -> before.shardIndex(k) != after.shardIndex(k))
+                    .allMatch(k -> after.shardIndex(k) == 3)).isTrue();
+        }
+    }
+
+    private static String id(int i) {
+        return String.format("sh%03d", i);
+    }
+}
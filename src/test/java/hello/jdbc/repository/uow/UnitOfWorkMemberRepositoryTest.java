@@ -0,0 +1,130 @@
+package hello.jdbc.repository.uow;
+
+import com.zaxxer.hikari.HikariDataSource;
+import hello.jdbc.connection.TestDataSources;
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepositoryV5;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.JdbcUpdateAffectedIncorrectNumberOfRowsException;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.NoSuchElementException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class UnitOfWorkMemberRepositoryTest {
+    static final String MEMBER_A = "uowA";
+    static final String MEMBER_B = "uowB";
+
+    HikariDataSource dataSource;
+    MemberRepositoryV5 delegate;
+    UnitOfWorkMemberRepository repository;
+    TransactionTemplate txTemplate;
+
+    @BeforeEach
+    void before() {
+        dataSource = TestDataSources.hikari();
+        delegate = new MemberRepositoryV5(dataSource);
+        repository = new UnitOfWorkMemberRepository(delegate);
+        txTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        delegate.save(new Member(MEMBER_A, 10000));
+    }
+
+    @AfterEach
+    void after() {
+        delegate.delete(MEMBER_A);
+        delegate.delete(MEMBER_B);
+        dataSource.close();
+    }
+
+    @Test
+    void flushAtCommit() {
+        txTemplate.executeWithoutResult(status -> {
+            repository.update(MEMBER_A, 9000);
+            repository.update(MEMBER_A, 8000);
+            repository.update(MEMBER_A, 7000);
+            repository.save(new Member(MEMBER_B, 100));
+            repository.update(MEMBER_B, 200);
+
+            // 아직 DB에는 보내지 않았다. (같은 트랜잭션 커넥션으로 읽어도 이전 값)
+            assertThat(delegate.findById(MEMBER_A).getMoney()).isEqualTo(10000);
+            // 작업 단위를 거치면 마지막 값이 보인다.
+            assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(7000);
+            assertThat(repository.findById(MEMBER_B).getMoney()).isEqualTo(200);
+        });
+
+        assertThat(delegate.findById(MEMBER_A).getMoney()).isEqualTo(7000);
+        assertThat(delegate.findById(MEMBER_B).getMoney()).isEqualTo(200);
+    }
+
+    @Test
+    void rollbackSendsNothing() {
+        txTemplate.executeWithoutResult(status -> {
+            repository.update(MEMBER_A, 7000);
+            repository.save(new Member(MEMBER_B, 100));
+            status.setRollbackOnly();
+        });
+
+        assertThat(delegate.findById(MEMBER_A).getMoney()).isEqualTo(10000);
+        assertThatThrownBy(() -> delegate.findById(MEMBER_B))
+                .isInstanceOf(EmptyResultDataAccessException.class);
+    }
+
+    @Test
+    void relativeUpdateFlushesFirst() {
+        txTemplate.executeWithoutResult(status -> {
+            repository.update(MEMBER_A, 5000);
+            // addMoney는 DB의 현재 값이 필요하므로 모아둔 update를 먼저 내보낸다.
+            repository.addMoney(MEMBER_A, 500);
+            assertThat(delegate.findById(MEMBER_A).getMoney()).isEqualTo(5500);
+        });
+
+        assertThat(delegate.findById(MEMBER_A).getMoney()).isEqualTo(5500);
+    }
+
+    @Test
+    void deleteInTransaction() {
+        txTemplate.executeWithoutResult(status -> {
+            repository.delete(MEMBER_A);
+            assertThatThrownBy(() -> repository.findById(MEMBER_A))
+                    .isInstanceOf(NoSuchElementException.class);
+            // 저장 후 삭제는 아무것도 보내지 않는다.
+            repository.save(new Member(MEMBER_B, 100));
+            repository.delete(MEMBER_B);
+        });
+
+        assertThatThrownBy(() -> delegate.findById(MEMBER_A))
+                .isInstanceOf(EmptyResultDataAccessException.class);
+        assertThatThrownBy(() -> delegate.findById(MEMBER_B))
+                .isInstanceOf(EmptyResultDataAccessException.class);
+    }
+
+    @Test
+    void saveAfterDeleteInserts() {
+        txTemplate.executeWithoutResult(status -> {
+            repository.delete(MEMBER_A);
+            repository.save(new Member(MEMBER_A, 300));
+            // 행이 없던 회원도 삭제 후 저장하면 insert 된다.
+            repository.delete(MEMBER_B);
+            repository.save(new Member(MEMBER_B, 400));
+        });
+
+        assertThat(delegate.findById(MEMBER_A).getMoney()).isEqualTo(300);
+        assertThat(delegate.findById(MEMBER_B).getMoney()).isEqualTo(400);
+    }
+
+    @Test
+    void updateOfMissingMemberFailsCommit() {
+        assertThatThrownBy(() -> txTemplate.executeWithoutResult(status -> {
+            repository.update(MEMBER_A, 7000);
+            repository.update(MEMBER_B, 100);
+        })).isInstanceOf(JdbcUpdateAffectedIncorrectNumberOfRowsException.class);
+
+        assertThat(delegate.findById(MEMBER_A).getMoney()).isEqualTo(10000);
+    }
+}
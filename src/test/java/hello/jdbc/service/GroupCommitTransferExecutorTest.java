@@ -0,0 +1,176 @@
+package hello.jdbc.service;
+
+import com.zaxxer.hikari.HikariDataSource;
+import hello.jdbc.connection.TestDataSources;
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepository;
+import hello.jdbc.repository.MemberRepositoryV5;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@Slf4j
+class GroupCommitTransferExecutorTest {
+    static final String MEMBER_A = "groupA";
+    static final String MEMBER_B = "groupB";
+    static final int THREADS = 16;
+    static final int TRANSFERS_PER_THREAD = 100;
+
+    HikariDataSource dataSource;
+    MemberRepository memberRepository;
+    DataSourceTransactionManager transactionManager;
+    GroupCommitTransferExecutor executor;
+
+    @BeforeEach
+    void before() {
+        dataSource = TestDataSources.hikari();
+        memberRepository = new MemberRepositoryV5(dataSource);
+        transactionManager = new DataSourceTransactionManager(dataSource);
+        executor = new GroupCommitTransferExecutor(transactionManager, memberRepository, 64, Duration.ofMillis(2));
+        memberRepository.save(new Member(MEMBER_A, 100000));
+        memberRepository.save(new Member(MEMBER_B, 100000));
+    }
+
+    @AfterEach
+    void after() {
+        executor.close();
+        memberRepository.delete(MEMBER_A);
+        memberRepository.delete(MEMBER_B);
+        dataSource.close();
+    }
+
+    @Test
+    void concurrentTransfers() throws Exception {
+        AtomicInteger expectedA = new AtomicInteger(100000);
+        long elapsed = runConcurrently((fromId, toId, money) -> {
+            executor.transfer(fromId, toId, money);
+            expectedA.addAndGet(fromId.equals(MEMBER_A) ? -money : money);
+        });
+
+        log.info("group commit transfers={}, batches={}, elapsed={}ms",
+                executor.getTransferCount(), executor.getBatchCount(), elapsed / 1_000_000);
+        assertThat(executor.getTransferCount()).isEqualTo(THREADS * TRANSFERS_PER_THREAD);
+        // 여러 이체가 하나의 트랜잭션으로 묶여서 커밋 횟수가 줄어든다.
+        assertThat(executor.getBatchCount()).isLessThan(executor.getTransferCount());
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(expectedA.get());
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(200000 - expectedA.get());
+    }
+
+    @Test
+    void failureIsolatedToOneTransfer() {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        futures.add(executor.submit(MEMBER_A, MEMBER_B, 1000));
+        futures.add(executor.submit(MEMBER_A, MEMBER_B, 1_000_000)); // 잔액 부족
+        futures.add(executor.submit(MEMBER_A, "groupNone", 1000));   // 없는 회원
+        futures.add(executor.submit(MEMBER_B, MEMBER_A, 500));
+
+        assertThat(futures.get(0).join()).isNull();
+        assertThatThrownBy(() -> futures.get(1).join())
+                .isInstanceOf(CompletionException.class)
+                .hasCauseInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> futures.get(2).join())
+                .isInstanceOf(CompletionException.class);
+        assertThat(futures.get(3).join()).isNull();
+
+        // 실패한 이체만 세이브포인트로 롤백되었다.
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(99500);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(100500);
+    }
+
+    /*
+    *   비교용 : 이체마다 트랜잭션 하나 (MemberServiceV4.accountTransferAtomic과 같은 방식)
+    *   처리량만 로그로 남긴다. (환경에 따라 차이가 크기 때문에 검증하지 않는다.)
+    * */
+    @Test
+    void errorInLeaderFailsFuturesAndCloses() {
+        // 드라이버에서 Error가 나는 상황
+        MemberRepository broken = (MemberRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{MemberRepository.class}, (proxy, method, args) -> {
+                    throw new StackOverflowError("driver");
+                });
+        GroupCommitTransferExecutor brokenExecutor =
+                new GroupCommitTransferExecutor(transactionManager, broken, 64, Duration.ofMillis(2));
+        try {
+            assertThatThrownBy(() -> brokenExecutor.submit(MEMBER_A, MEMBER_B, 100).join())
+                    .hasCauseInstanceOf(StackOverflowError.class);
+            // 리더가 멈췄으므로 이후 요청은 기다리지 않고 실패한다.
+            assertThatThrownBy(() -> brokenExecutor.transfer(MEMBER_A, MEMBER_B, 100))
+                    .isInstanceOf(IllegalStateException.class);
+        } finally {
+            brokenExecutor.close();
+        }
+    }
+
+    @Test
+    @Tag("benchmark")
+    void compareWithTransactionPerTransfer() throws Exception {
+        long grouped = runConcurrently(executor::transfer);
+        MemberServiceV4 memberService = new MemberServiceV4(memberRepository);
+        TransactionTemplate txTemplate = new TransactionTemplate(transactionManager);
+        long single = runConcurrently((fromId, toId, money) -> {
+            try {
+                txTemplate.executeWithoutResult(status -> memberService.accountTransferAtomic(fromId, toId, money));
+            } catch (RuntimeException e) {
+                // 같은 두 행에 락 경합이 심해서 락 타임아웃이 날 수 있다.
+                log.debug("transfer failed", e);
+            }
+        });
+
+        int total = THREADS * TRANSFERS_PER_THREAD;
+        log.info("group commit {} tps, transaction per transfer {} tps",
+                total * 1_000_000_000L / grouped, total * 1_000_000_000L / single);
+    }
+
+    interface TransferCall {
+        void transfer(String fromId, String toId, int money);
+    }
+
+    private long runConcurrently(TransferCall call) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(pool.submit(() -> {
+                start.await();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+                    int money = random.nextInt(1, 100);
+                    if (random.nextBoolean()) {
+                        call.transfer(MEMBER_A, MEMBER_B, money);
+                    } else {
+                        call.transfer(MEMBER_B, MEMBER_A, money);
+                    }
+                }
+                return null;
+            }));
+        }
+        long startNanos = System.nanoTime();
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long elapsed = System.nanoTime() - startNanos;
+        pool.shutdown();
+        return elapsed;
+    }
+}
@@ -0,0 +1,196 @@
+package hello.jdbc.service;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.domain.Transfer;
+import hello.jdbc.repository.MemberRepository;
+import hello.jdbc.repository.MemberRepositoryV5;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.sql.DataSource;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/*
+*   sql/schema.sql의 transfer_journal 테이블이 필요하다.
+* */
+@Slf4j
+@SpringBootTest
+class JournaledTransferExecutorTest {
+    static final String MEMBER_A = "journalA";
+    static final String MEMBER_B = "journalB";
+    static final String JOURNAL = "transfer-test.journal";
+    static final int THREADS = 16;
+    static final int TRANSFERS_PER_THREAD = 100;
+
+    @Autowired
+    private MemberRepository memberRepository;
+    @Autowired
+    private MemberServiceV4 memberService;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @Autowired
+    private DataSource dataSource;
+
+    @TempDir
+    Path dir;
+
+    @TestConfiguration
+    static class TestConfig{
+        private final DataSource dataSource;
+        public TestConfig(DataSource dataSource){
+            this.dataSource = dataSource;
+        }
+        @Bean
+        MemberRepository memberRepository(){
+            return new MemberRepositoryV5(dataSource);
+        }
+        @Bean
+        MemberServiceV4 memberServiceV4(){
+            return new MemberServiceV4(memberRepository());
+        }
+    }
+
+    @BeforeEach
+    void before() {
+        memberRepository.save(new Member(MEMBER_A, 100000));
+        memberRepository.save(new Member(MEMBER_B, 100000));
+    }
+
+    @AfterEach
+    void after() {
+        memberRepository.delete(MEMBER_A);
+        memberRepository.delete(MEMBER_B);
+        new JdbcTemplate(dataSource).update("delete from transfer_journal where journal_name = ?", JOURNAL);
+    }
+
+    @Test
+    void concurrentTransfersAreAckedAndApplied() throws Exception {
+        try (JournaledTransferExecutor executor = newExecutor(JournaledTransferExecutor.DEFAULT_CAPACITY)) {
+            ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                boolean aToB = t % 2 == 0;
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+                        if (aToB) {
+                            executor.transfer(MEMBER_A, MEMBER_B, 3);
+                        } else {
+                            executor.transfer(MEMBER_B, MEMBER_A, 1);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            long elapsed = System.nanoTime() - begin;
+            pool.shutdown();
+
+            assertThat(executor.awaitApplied(Duration.ofSeconds(30))).isTrue();
+            int total = THREADS * TRANSFERS_PER_THREAD;
+            log.info("acked {} tps, syncs={} batches={}", total * 1_000_000_000L / elapsed,
+                    executor.getSyncCount(), executor.getBatchCount());
+            assertThat(executor.getAppliedCount()).isEqualTo(total);
+            // fsync와 DB 트랜잭션은 여러 이체를 묶어서 처리한다.
+            assertThat(executor.getSyncCount()).isLessThanOrEqualTo(total);
+        }
+        int half = THREADS / 2 * TRANSFERS_PER_THREAD;
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(100000 - 3 * half + half);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(100000 + 3 * half - half);
+    }
+
+    @Test
+    void rejectedTransferDoesNotBlockBatch() throws Exception {
+        List<Transfer> rejected = new CopyOnWriteArrayList<>();
+        try (JournaledTransferExecutor executor = newExecutor(JournaledTransferExecutor.DEFAULT_CAPACITY)) {
+            executor.setRejectionListener((transfer, e) -> rejected.add(transfer));
+            List<CompletableFuture<Void>> acks = new ArrayList<>();
+            acks.add(executor.submit(MEMBER_A, MEMBER_B, 500));
+            acks.add(executor.submit(MEMBER_A, MEMBER_B, 1_000_000));
+            acks.add(executor.submit(MEMBER_B, MEMBER_A, 200));
+            CompletableFuture.allOf(acks.toArray(new CompletableFuture[0])).join();
+
+            assertThat(executor.awaitApplied(Duration.ofSeconds(10))).isTrue();
+            assertThat(executor.getRejectedCount()).isEqualTo(1);
+        }
+        assertThat(rejected).containsExactly(new Transfer(MEMBER_A, MEMBER_B, 1_000_000));
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(100000 - 500 + 200);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(100000 + 500 - 200);
+    }
+
+    @Test
+    void smallJournalWrapsAround() throws Exception {
+        try (JournaledTransferExecutor executor = newExecutor(1024)) {
+            for (int i = 0; i < 300; i++) {
+                executor.transfer(MEMBER_A, MEMBER_B, 1);
+            }
+            assertThat(executor.awaitApplied(Duration.ofSeconds(30))).isTrue();
+        }
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(100000 - 300);
+    }
+
+    /*
+    *   반영 전에 멈춘 경우 : 저널에만 쓰고 DB 반영 위치는 그대로 둔 상태에서 다시 연다.
+    *   다시 열면 남은 레코드만 반영하고, 이미 반영된 레코드는 다시 반영하지 않는다.
+    * */
+    @Test
+    void resumesFromAppliedOffsetAfterRestart() throws Exception {
+        try (JournaledTransferExecutor executor = newExecutor(JournaledTransferExecutor.DEFAULT_CAPACITY)) {
+            executor.transfer(MEMBER_A, MEMBER_B, 100);
+            assertThat(executor.awaitApplied(Duration.ofSeconds(10))).isTrue();
+        }
+        // 접수기 없이 저널에만 두 건을 쓰고 끝에 쓰다 만 레코드를 남긴다. (fsync 후 반영 전에 죽은 상황)
+        Path path = dir.resolve(JOURNAL);
+        long applied = new JdbcTemplate(dataSource).queryForObject(
+                "select applied_offset from transfer_journal where journal_name = ?", Long.class, JOURNAL);
+        long position;
+        try (TransferJournal journal = TransferJournal.open(path, JournaledTransferExecutor.DEFAULT_CAPACITY, applied)) {
+            journal.append(TransferJournal.encode(MEMBER_A, MEMBER_B, 10));
+            journal.append(TransferJournal.encode(MEMBER_B, MEMBER_A, 3));
+            position = journal.end() - journal.base();
+        }
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.seek(TransferJournal.HEADER_SIZE + position);
+            file.writeInt(30);
+            file.writeInt(12345);
+        }
+
+        try (JournaledTransferExecutor executor = newExecutor(JournaledTransferExecutor.DEFAULT_CAPACITY)) {
+            assertThat(executor.awaitApplied(Duration.ofSeconds(10))).isTrue();
+            assertThat(executor.getAppliedCount()).isEqualTo(2);
+        }
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(100000 - 100 - 10 + 3);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(100000 + 100 + 10 - 3);
+    }
+
+    private JournaledTransferExecutor newExecutor(int capacity) {
+        return new JournaledTransferExecutor(memberService, transactionManager, dataSource,
+                dir.resolve(JOURNAL), capacity, 64);
+    }
+}
@@ -0,0 +1,168 @@
+package hello.jdbc.service;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepository;
+import hello.jdbc.repository.MemberRepositoryV5;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/*
+*   accountTransferAtomic, accountTransferOptimistic(OptimisticTransferExecutor) 동시성 테스트
+*   여러 스레드가 A->B, B->A 이체를 섞어서 실행해도 성공한 이체만큼 정확히 잔액이 변해야 한다. (갱신 손실 없음)
+* */
+@Slf4j
+@SpringBootTest
+class MemberServiceV4ConcurrencyTest {
+    public static final String MEMBER_A = "memberA";
+    public static final String MEMBER_B = "memberB";
+    static final int THREADS = 16;
+    static final int TRANSFERS_PER_THREAD = 100;
+
+    @Autowired
+    private MemberRepository memberRepository;
+    @Autowired
+    private MemberServiceV4 memberService;
+
+    @TestConfiguration
+    static class TestConfig{
+        private final DataSource dataSource;
+        public TestConfig(DataSource dataSource){
+            this.dataSource = dataSource;
+        }
+        @Bean
+        MemberRepository memberRepository(){
+            return new MemberRepositoryV5(dataSource);
+        }
+        @Bean
+        MemberServiceV4 memberServiceV4(){
+            return new MemberServiceV4(memberRepository());
+        }
+    }
+
+    @BeforeEach
+    void before() {
+        memberRepository.save(new Member(MEMBER_A, 100000));
+        memberRepository.save(new Member(MEMBER_B, 100000));
+    }
+
+    @AfterEach
+    void after() {
+        memberRepository.delete(MEMBER_A);
+        memberRepository.delete(MEMBER_B);
+    }
+
+    @Test
+    @DisplayName("동시 이체 - 갱신 손실 없음")
+    void concurrentTransfers() throws Exception {
+        AtomicInteger expectedA = new AtomicInteger(100000);
+        AtomicInteger failed = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+                    int money = random.nextInt(1, 100);
+                    boolean aToB = random.nextBoolean();
+                    try {
+                        if (aToB) {
+                            memberService.accountTransferAtomic(MEMBER_A, MEMBER_B, money);
+                            expectedA.addAndGet(-money);
+                        } else {
+                            memberService.accountTransferAtomic(MEMBER_B, MEMBER_A, money);
+                            expectedA.addAndGet(money);
+                        }
+                    } catch (RuntimeException e) {
+                        // 락 타임아웃 등으로 실패한 이체는 롤백되므로 기대값에 반영하지 않는다.
+                        failed.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        log.info("failed transfers={}", failed.get());
+        Member memberA = memberRepository.findById(MEMBER_A);
+        Member memberB = memberRepository.findById(MEMBER_B);
+        assertThat(memberA.getMoney()).isEqualTo(expectedA.get());
+        assertThat(memberA.getMoney() + memberB.getMoney()).isEqualTo(200000);
+    }
+
+    @Test
+    @DisplayName("낙관적 락 동시 이체 - 충돌하면 재시도, 갱신 손실 없음")
+    void concurrentOptimisticTransfers() throws Exception {
+        OptimisticTransferExecutor executor = new OptimisticTransferExecutor(memberService, 20,
+                Duration.ofMillis(1), Duration.ofMillis(20));
+        AtomicInteger expectedA = new AtomicInteger(100000);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(pool.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+                    int money = random.nextInt(1, 100);
+                    try {
+                        if (random.nextBoolean()) {
+                            executor.transfer(MEMBER_A, MEMBER_B, money);
+                            expectedA.addAndGet(-money);
+                        } else {
+                            executor.transfer(MEMBER_B, MEMBER_A, money);
+                            expectedA.addAndGet(money);
+                        }
+                    } catch (RuntimeException e) {
+                        // 재시도 한도 초과는 롤백되었으므로 기대값에 반영하지 않는다.
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        pool.shutdown();
+
+        log.info("conflicts={}, exhausted={}", executor.getConflictCount(), executor.getExhaustedCount());
+        Member memberA = memberRepository.findById(MEMBER_A);
+        Member memberB = memberRepository.findById(MEMBER_B);
+        assertThat(memberA.getMoney()).isEqualTo(expectedA.get());
+        assertThat(memberA.getMoney() + memberB.getMoney()).isEqualTo(200000);
+    }
+
+    @Test
+    @DisplayName("잔액 부족 - 음수가 되지 않음")
+    void insufficientMoney() {
+        assertThatThrownBy(() -> memberService.accountTransferAtomic(MEMBER_A, MEMBER_B, 100001))
+                .isInstanceOf(IllegalStateException.class);
+
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(100000);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(100000);
+    }
+}
@@ -1,6 +1,7 @@
 package hello.jdbc.service;
 
 import hello.jdbc.domain.Member;
+import hello.jdbc.domain.Transfer;
 import hello.jdbc.repository.*;
 import lombok.extern.slf4j.Slf4j;
 import org.assertj.core.api.Assertions;
@@ -15,6 +16,7 @@ import org.springframework.context.annotation.Bean;
 
 import javax.sql.DataSource;
 import java.sql.SQLException;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
@@ -94,6 +96,85 @@ class MemberServiceV4Test {
         assertThat(findMemberEx.getMoney()).isEqualTo(10000);
     }
 
+    @Test
+    @DisplayName("SQL 한번으로 이체")
+    void accountTransferOneStatement() {
+        // given
+        Member memberA = new Member(MEMBER_A, 10000);
+        Member memberB = new Member(MEMBER_B, 10000);
+        memberRepository.save(memberA);
+        memberRepository.save(memberB);
+        // when
+        memberService.accountTransferOneStatement(memberA.getMemberId(), memberB.getMemberId(), 2000);
+        // then
+        assertThat(memberRepository.findById(memberA.getMemberId()).getMoney()).isEqualTo(8000);
+        assertThat(memberRepository.findById(memberB.getMemberId()).getMoney()).isEqualTo(12000);
+    }
+
+    @Test
+    @DisplayName("SQL 한번으로 이체 - 잔액 부족시 롤백")
+    void accountTransferOneStatementInsufficient() {
+        // given
+        Member memberA = new Member(MEMBER_A, 10000);
+        Member memberB = new Member(MEMBER_B, 10000);
+        memberRepository.save(memberA);
+        memberRepository.save(memberB);
+        // when
+        assertThatThrownBy(()->memberService.accountTransferOneStatement(memberA.getMemberId(), memberB.getMemberId(), 20000))
+                .isInstanceOf(IllegalStateException.class);
+        // then : memberB에 입금된 금액도 롤백 되어야 함
+        assertThat(memberRepository.findById(memberA.getMemberId()).getMoney()).isEqualTo(10000);
+        assertThat(memberRepository.findById(memberB.getMemberId()).getMoney()).isEqualTo(10000);
+    }
+
+    @Test
+    @DisplayName("비관적 락 이체")
+    void accountTransferLocked() {
+        // given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+        // when : member_id 역순(B -> A)으로도 이체해본다.
+        memberService.accountTransferLocked(MEMBER_A, MEMBER_B, 2000);
+        memberService.accountTransferLocked(MEMBER_B, MEMBER_A, 500);
+        // then
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(8500);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(11500);
+        assertThatThrownBy(() -> memberService.accountTransferLocked(MEMBER_A, MEMBER_B, 20000))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    @DisplayName("일괄 이체 - 순증감으로 합쳐서 반영")
+    void accountTransferBatch() {
+        // given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+        // when : A는 B에게 받은 돈까지 합쳐서 잔액보다 많이 보낸다. (최종 잔액만 0 이상이면 된다.)
+        memberService.accountTransferBatch(List.of(
+                new Transfer(MEMBER_B, MEMBER_A, 5000),
+                new Transfer(MEMBER_A, MEMBER_B, 12000),
+                new Transfer(MEMBER_B, MEMBER_A, 1000)));
+        // then
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(4000);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(16000);
+    }
+
+    @Test
+    @DisplayName("일괄 이체 - 잔액 부족시 전체 롤백")
+    void accountTransferBatchInsufficient() {
+        // given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+        // when
+        assertThatThrownBy(() -> memberService.accountTransferBatch(List.of(
+                new Transfer(MEMBER_A, MEMBER_B, 6000),
+                new Transfer(MEMBER_A, MEMBER_B, 6000))))
+                .isInstanceOf(IllegalStateException.class);
+        // then : memberB에 입금된 금액도 롤백 되어야 함
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(10000);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(10000);
+    }
+
     @Test
     @DisplayName("Aop Check")
     void aopCheck(){
@@ -0,0 +1,204 @@
+package hello.jdbc.service;
+
+import com.zaxxer.hikari.HikariDataSource;
+import hello.jdbc.connection.TestDataSources;
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepositoryV5;
+import hello.jdbc.repository.shard.ShardedMemberRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/*
+*   샤드 2개(H2 메모리 DB)와 사가 로그(샤드 0 DB)로 테스트한다.
+* */
+class ShardedTransferCoordinatorTest {
+    static final int SHARDS = 2;
+
+    List<HikariDataSource> dataSources = new ArrayList<>();
+    ShardedMemberRepository repository;
+    ShardedTransferCoordinator coordinator;
+    JdbcTemplate sagaLog;
+
+    @BeforeEach
+    void before() {
+        for (int i = 0; i < SHARDS; i++) {
+            HikariDataSource dataSource = TestDataSources.memberShard("saga" + i);
+            JdbcTemplate template = new JdbcTemplate(dataSource);
+            template.execute("drop table saga_step if exists");
+            template.execute("create table saga_step(saga_id varchar(36), step varchar(10), primary key (saga_id, step))");
+            dataSources.add(dataSource);
+        }
+        sagaLog = new JdbcTemplate(dataSources.get(0));
+        sagaLog.execute("drop table transfer_saga if exists");
+        sagaLog.execute("create table transfer_saga(saga_id varchar(36), from_id varchar(10) not null," +
+                " to_id varchar(10) not null, money integer not null, status varchar(20) not null, primary key (saga_id))");
+        repository = new ShardedMemberRepository(new ArrayList<>(dataSources), MemberRepositoryV5::new);
+        coordinator = new ShardedTransferCoordinator(repository, dataSources.get(0));
+        for (int i = 0; i < 20; i++) {
+            repository.save(new Member(id(i), 10000));
+        }
+    }
+
+    @AfterEach
+    void after() {
+        repository.close();
+        dataSources.forEach(HikariDataSource::close);
+    }
+
+    @Test
+    void sameShardUsesLocalTransaction() {
+        String[] pair = pair(true);
+        coordinator.accountTransfer(pair[0], pair[1], 2000);
+
+        assertThat(repository.findById(pair[0]).getMoney()).isEqualTo(8000);
+        assertThat(repository.findById(pair[1]).getMoney()).isEqualTo(12000);
+        assertThat(sagaCount()).isEqualTo(0);
+
+        assertThatThrownBy(() -> coordinator.accountTransfer(pair[0], pair[1], 100_000))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(repository.findById(pair[1]).getMoney()).isEqualTo(12000);
+    }
+
+    @Test
+    void crossShardSagaCompletes() {
+        String[] pair = pair(false);
+        coordinator.accountTransfer(pair[0], pair[1], 2000);
+
+        assertThat(repository.findById(pair[0]).getMoney()).isEqualTo(8000);
+        assertThat(repository.findById(pair[1]).getMoney()).isEqualTo(12000);
+        assertThat(statuses()).containsExactly("COMPLETED");
+    }
+
+    @Test
+    void crossShardDebitRejectedFails() {
+        String[] pair = pair(false);
+        assertThatThrownBy(() -> coordinator.accountTransfer(pair[0], pair[1], 100_000))
+                .isInstanceOf(IllegalStateException.class);
+
+        assertThat(repository.findById(pair[0]).getMoney()).isEqualTo(10000);
+        assertThat(statuses()).containsExactly("FAILED");
+    }
+
+    @Test
+    void crossShardCreditRejectedIsCompensated() {
+        String fromId = id(0);
+        String missing = null;
+        for (int i = 100; missing == null; i++) {
+            if (repository.shardIndex(id(i)) != repository.shardIndex(fromId)) {
+                missing = id(i);
+            }
+        }
+        String toId = missing;
+
+        assertThatThrownBy(() -> coordinator.accountTransfer(fromId, toId, 3000))
+                .isInstanceOf(NoSuchElementException.class);
+        assertThat(repository.findById(fromId).getMoney()).isEqualTo(10000);
+        assertThat(statuses()).containsExactly("COMPENSATED");
+    }
+
+    @Test
+    void crossShardCreditIntegrityViolationIsCompensated() {
+        String[] pair = pair(false);
+        // 입금하면 integer 범위를 넘는다. (다시 해도 실패하는 DB 오류)
+        repository.update(pair[1], Integer.MAX_VALUE - 1000);
+
+        assertThatThrownBy(() -> coordinator.accountTransfer(pair[0], pair[1], 3000))
+                .isInstanceOf(DataIntegrityViolationException.class);
+        assertThat(repository.findById(pair[0]).getMoney()).isEqualTo(10000);
+        assertThat(statuses()).containsExactly("COMPENSATED");
+    }
+
+    /*
+    *   코디네이터가 단계 중간에 죽은 상황을 사가 로그와 saga_step으로 직접 만들고 recover()로 이어서 처리한다.
+    * */
+    @Test
+    void recoverResumesPendingSagasInParallel() {
+        String[] pair = pair(false);
+        String fromId = pair[0];
+        String toId = pair[1];
+        int fromShard = repository.shardIndex(fromId);
+
+        // 출금 후 STARTED에서 멈춤 (DEBITED 기록 전)
+        insertSaga("s-started-debited", fromId, toId, 100, "STARTED");
+        debitedOnShard(fromShard, "s-started-debited", fromId, 100);
+        // 출금 전 STARTED에서 멈춤
+        insertSaga("s-started-none", fromId, toId, 100, "STARTED");
+        // DEBITED에서 멈춤 (여러 건)
+        for (int i = 0; i < 10; i++) {
+            insertSaga("s-debited-" + i, fromId, toId, 10, "DEBITED");
+            debitedOnShard(fromShard, "s-debited-" + i, fromId, 10);
+        }
+        // 환불 중에 멈춤
+        insertSaga("s-compensating", fromId, "sagaNone", 500, "COMPENSATING");
+        debitedOnShard(fromShard, "s-compensating", fromId, 500);
+
+        assertThat(coordinator.recover()).isEqualTo(13);
+        // 다시 실행해도 바뀌는 것이 없다.
+        assertThat(coordinator.recover()).isEqualTo(0);
+
+        assertThat(status("s-started-debited")).isEqualTo("COMPLETED");
+        assertThat(status("s-started-none")).isEqualTo("FAILED");
+        assertThat(status("s-debited-3")).isEqualTo("COMPLETED");
+        assertThat(status("s-compensating")).isEqualTo("COMPENSATED");
+        assertThat(repository.findById(fromId).getMoney()).isEqualTo(10000 - 100 - 100);
+        assertThat(repository.findById(toId).getMoney()).isEqualTo(10000 + 100 + 100);
+    }
+
+    @Test
+    void rejectedRefundEndsInManual() {
+        // 환불 중에 출금 회원이 삭제되어 환불도 거절된다.
+        insertSaga("s-manual", "sagaGone", id(1), 500, "COMPENSATING");
+
+        assertThat(coordinator.recover()).isEqualTo(1);
+        assertThat(status("s-manual")).isEqualTo("MANUAL");
+        // 끝난 사가이므로 다시 시도하지 않는다.
+        assertThat(coordinator.recover()).isEqualTo(0);
+    }
+
+    private void insertSaga(String sagaId, String fromId, String toId, int money, String status) {
+        sagaLog.update("insert into transfer_saga(saga_id, from_id, to_id, money, status) values(?, ?, ?, ?, ?)",
+                sagaId, fromId, toId, money, status);
+    }
+
+    private void debitedOnShard(int shard, String sagaId, String memberId, int money) {
+        new JdbcTemplate(repository.dataSource(shard))
+                .update("insert into saga_step(saga_id, step) values(?, 'DEBIT')", sagaId);
+        repository.addMoney(memberId, -money);
+    }
+
+    // 같은 샤드(또는 다른 샤드)에 있는 회원 두 명
+    private String[] pair(boolean sameShard) {
+        for (int i = 1; i < 20; i++) {
+            if ((repository.shardIndex(id(0)) == repository.shardIndex(id(i))) == sameShard) {
+                return new String[]{id(0), id(i)};
+            }
+        }
+        throw new IllegalStateException("no pair");
+    }
+
+    private List<String> statuses() {
+        return sagaLog.queryForList("select status from transfer_saga", String.class);
+    }
+
+    private String status(String sagaId) {
+        return sagaLog.queryForObject("select status from transfer_saga where saga_id = ?", String.class, sagaId);
+    }
+
+    private int sagaCount() {
+        return sagaLog.queryForObject("select count(*) from transfer_saga", Integer.class);
+    }
+
+    private static String id(int i) {
+        return String.format("saga%03d", i);
+    }
+}
@@ -0,0 +1,82 @@
+package hello.jdbc.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.CannotAcquireLockException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StripedLockManagerTest {
+
+    @Test
+    void stripeCountRoundedToPowerOfTwo() {
+        assertThat(new StripedLockManager(1000, Duration.ofSeconds(1)).stripeCount()).isEqualTo(1024);
+        assertThat(new StripedLockManager(16, Duration.ofSeconds(1)).stripeCount()).isEqualTo(16);
+        assertThat(new StripedLockManager(1, Duration.ofSeconds(1)).stripeCount()).isEqualTo(1);
+    }
+
+    @Test
+    void mutualExclusion() throws Exception {
+        StripedLockManager lockManager = new StripedLockManager(64, Duration.ofSeconds(5));
+        int[] counter = new int[1];
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            // 절반은 A->B, 절반은 B->A 순서로 잡는다. 정렬해서 잡기 때문에 교착상태가 없다.
+            String[] ids = t % 2 == 0 ? new String[]{"memberA", "memberB"} : new String[]{"memberB", "memberA"};
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    lockManager.runLocked(() -> counter[0]++, ids);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertThat(counter[0]).isEqualTo(80_000);
+    }
+
+    @Test
+    void sameStripeLockedOnce() {
+        // stripe가 하나뿐이면 모든 회원이 같은 stripe다. 두번 잡지 않아야 한다.
+        StripedLockManager lockManager = new StripedLockManager(1, Duration.ofSeconds(1));
+        String result = lockManager.callLocked(() -> "ok", "memberA", "memberB", "memberA");
+
+        assertThat(result).isEqualTo("ok");
+    }
+
+    @Test
+    void timeout() throws Exception {
+        StripedLockManager lockManager = new StripedLockManager(16, Duration.ofMillis(100));
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(() -> lockManager.runLocked(() -> {
+            locked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "memberA"));
+        holder.start();
+        locked.await();
+
+        assertThatThrownBy(() -> lockManager.runLocked(() -> { }, "memberA"))
+                .isInstanceOf(CannotAcquireLockException.class);
+        assertThat(lockManager.getContendedCount()).isEqualTo(1);
+
+        release.countDown();
+        holder.join();
+    }
+}
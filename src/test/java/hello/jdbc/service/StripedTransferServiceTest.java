@@ -0,0 +1,120 @@
+package hello.jdbc.service;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepository;
+import hello.jdbc.repository.MemberRepositoryV5;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/*
+*   인기 회원(가맹점) 하나에 이체가 몰리는 경우
+*   스레드 수(32)보다 커넥션 풀(4)이 훨씬 작아도 JVM 락에서 기다리기 때문에 커넥션 타임아웃이 나지 않는다.
+*   락 없이 조회 후 update 하는 accountTransfer도 같은 JVM 안에서는 갱신 손실이 생기지 않는다.
+* */
+@Slf4j
+@SpringBootTest(properties = {
+        "spring.datasource.hikari.maximum-pool-size=4",
+        "spring.datasource.hikari.connection-timeout=2000"})
+class StripedTransferServiceTest {
+    static final String MERCHANT = "stripeM";
+    static final String PAYER_PREFIX = "stripeP";
+    static final int PAYERS = 8;
+    static final int THREADS = 32;
+    static final int TRANSFERS_PER_THREAD = 20;
+
+    @Autowired
+    private MemberRepository memberRepository;
+    @Autowired
+    private StripedTransferService transferService;
+    @Autowired
+    private StripedLockManager lockManager;
+
+    @TestConfiguration
+    static class TestConfig{
+        private final DataSource dataSource;
+        public TestConfig(DataSource dataSource){
+            this.dataSource = dataSource;
+        }
+        @Bean
+        MemberRepository memberRepository(){
+            return new MemberRepositoryV5(dataSource);
+        }
+        @Bean
+        MemberServiceV4 memberServiceV4(){
+            return new MemberServiceV4(memberRepository());
+        }
+        @Bean
+        StripedLockManager stripedLockManager(){
+            return new StripedLockManager();
+        }
+        @Bean
+        StripedTransferService stripedTransferService(MemberServiceV4 memberServiceV4){
+            // 트랜잭션 AOP 프록시를 주입받아서 감싼다.
+            return new StripedTransferService(memberServiceV4, stripedLockManager());
+        }
+    }
+
+    @BeforeEach
+    void before() {
+        memberRepository.save(new Member(MERCHANT, 0));
+        for (int i = 0; i < PAYERS; i++) {
+            memberRepository.save(new Member(PAYER_PREFIX + i, 100000));
+        }
+    }
+
+    @AfterEach
+    void after() {
+        memberRepository.delete(MERCHANT);
+        for (int i = 0; i < PAYERS; i++) {
+            memberRepository.delete(PAYER_PREFIX + i);
+        }
+    }
+
+    @Test
+    @DisplayName("인기 회원 집중 이체 - 커넥션 고갈, 갱신 손실 없음")
+    void hotMerchant() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            String payer = PAYER_PREFIX + (t % PAYERS);
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+                    transferService.accountTransfer(payer, MERCHANT, 10);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        // 커넥션 타임아웃이나 락 타임아웃이 있으면 여기서 예외가 난다.
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        log.info("contended={}", lockManager.getContendedCount());
+        assertThat(memberRepository.findById(MERCHANT).getMoney()).isEqualTo(THREADS * TRANSFERS_PER_THREAD * 10);
+        int perPayer = THREADS / PAYERS * TRANSFERS_PER_THREAD * 10;
+        for (int i = 0; i < PAYERS; i++) {
+            assertThat(memberRepository.findById(PAYER_PREFIX + i).getMoney()).isEqualTo(100000 - perPayer);
+        }
+    }
+}
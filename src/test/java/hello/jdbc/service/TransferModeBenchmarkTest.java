@@ -0,0 +1,209 @@
+package hello.jdbc.service;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepository;
+import hello.jdbc.repository.MemberRepositoryV5;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/*
+*   이체 방식별 처리량, p99 지연시간 비교
+*   회원 ACCOUNTS명 중 HOT_ACCOUNTS명에게 이체의 HOT_RATIO 만큼이 몰린다.
+*
+*   - unlocked : accountTransfer (락 없이 조회 후 update, 갱신 손실이 생긴다. 참고용)
+*   - locked   : accountTransferLocked (select for update를 member_id 순서로)
+*   - atomic   : accountTransferAtomic (조회 없이 money = money + ?)
+*   - optimistic : OptimisticTransferExecutor (version 컬럼 + 지터 백오프 재시도)
+*
+*   쏠린 부하(skewed)와 고르게 퍼진 부하(uniform) 두 가지로 측정한다.
+*   결과는 로그로만 남긴다. 환경에 따라 수치 차이가 크기 때문에 잔액 합계(갱신 손실 없음)만 검증한다.
+* */
+@Slf4j
+@SpringBootTest
+@Tag("benchmark")
+class TransferModeBenchmarkTest {
+    static final String PREFIX = "bench";
+    static final int ACCOUNTS = 10;
+    static final int HOT_ACCOUNTS = 2;
+    static final double HOT_RATIO = 0.8;
+    static final int INITIAL_MONEY = 1_000_000;
+    static final int THREADS = 16;
+    static final int TRANSFERS_PER_THREAD = 200;
+
+    @Autowired
+    private MemberRepository memberRepository;
+    @Autowired
+    private MemberServiceV4 memberService;
+
+    @TestConfiguration
+    static class TestConfig{
+        private final DataSource dataSource;
+        public TestConfig(DataSource dataSource){
+            this.dataSource = dataSource;
+        }
+        @Bean
+        MemberRepository memberRepository(){
+            return new MemberRepositoryV5(dataSource);
+        }
+        @Bean
+        MemberServiceV4 memberServiceV4(){
+            return new MemberServiceV4(memberRepository());
+        }
+    }
+
+    interface TransferCall {
+        void transfer(String fromId, String toId, int money);
+    }
+
+    @BeforeEach
+    void before() {
+        for (int i = 0; i < ACCOUNTS; i++) {
+            memberRepository.save(new Member(PREFIX + i, INITIAL_MONEY));
+        }
+    }
+
+    @AfterEach
+    void after() {
+        for (int i = 0; i < ACCOUNTS; i++) {
+            memberRepository.delete(PREFIX + i);
+        }
+    }
+
+    @Test
+    void compareTransferModesSkewed() throws Exception {
+        compareTransferModes("skewed", HOT_RATIO);
+    }
+
+    @Test
+    void compareTransferModesUniform() throws Exception {
+        compareTransferModes("uniform", 0);
+    }
+
+    private void compareTransferModes(String workload, double hotRatio) throws Exception {
+        OptimisticTransferExecutor optimistic = new OptimisticTransferExecutor(memberService);
+        Map<String, TransferCall> modes = new LinkedHashMap<>();
+        modes.put("unlocked", memberService::accountTransfer);
+        modes.put("locked", memberService::accountTransferLocked);
+        modes.put("atomic", memberService::accountTransferAtomic);
+        modes.put("optimistic", optimistic::transfer);
+
+        for (Map.Entry<String, TransferCall> mode : modes.entrySet()) {
+            reset();
+            Result result = run(mode.getValue(), hotRatio);
+            long total = totalMoney();
+            log.info("workload={} mode={} tps={} p99={}us failed={} totalMoney={}",
+                    workload, mode.getKey(), result.tps(), result.p99Micros(), result.failed, total);
+            if (!mode.getKey().equals("unlocked")) {
+                assertThat(total).isEqualTo((long) INITIAL_MONEY * ACCOUNTS);
+            }
+        }
+        log.info("workload={} optimistic conflicts={} exhausted={}",
+                workload, optimistic.getConflictCount(), optimistic.getExhaustedCount());
+    }
+
+    private void reset() {
+        for (int i = 0; i < ACCOUNTS; i++) {
+            memberRepository.update(PREFIX + i, INITIAL_MONEY);
+        }
+    }
+
+    private long totalMoney() {
+        long total = 0;
+        for (int i = 0; i < ACCOUNTS; i++) {
+            total += memberRepository.findById(PREFIX + i).getMoney();
+        }
+        return total;
+    }
+
+    private static String pickAccount(ThreadLocalRandom random, double hotRatio) {
+        if (random.nextDouble() < hotRatio) {
+            return PREFIX + random.nextInt(HOT_ACCOUNTS);
+        }
+        return PREFIX + random.nextInt(ACCOUNTS);
+    }
+
+    private Result run(TransferCall call, double hotRatio) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger failed = new AtomicInteger();
+        List<Future<long[]>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long[] latencies = new long[TRANSFERS_PER_THREAD];
+                for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+                    String fromId = pickAccount(random, hotRatio);
+                    String toId = pickAccount(random, hotRatio);
+                    while (toId.equals(fromId)) {
+                        toId = pickAccount(random, hotRatio);
+                    }
+                    long begin = System.nanoTime();
+                    try {
+                        call.transfer(fromId, toId, random.nextInt(1, 100));
+                    } catch (RuntimeException e) {
+                        // 락 타임아웃, 재시도 한도 초과 등은 롤백되므로 실패로만 센다.
+                        failed.incrementAndGet();
+                    }
+                    latencies[i] = System.nanoTime() - begin;
+                }
+                return latencies;
+            }));
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        long[] all = new long[THREADS * TRANSFERS_PER_THREAD];
+        int offset = 0;
+        for (Future<long[]> future : futures) {
+            long[] latencies = future.get();
+            System.arraycopy(latencies, 0, all, offset, latencies.length);
+            offset += latencies.length;
+        }
+        long elapsed = System.nanoTime() - begin;
+        executor.shutdown();
+        return new Result(all, elapsed, failed.get());
+    }
+
+    private static final class Result {
+        private final long[] latencies;
+        private final long elapsedNanos;
+        private final int failed;
+
+        private Result(long[] latencies, long elapsedNanos, int failed) {
+            this.latencies = latencies;
+            this.elapsedNanos = elapsedNanos;
+            this.failed = failed;
+            Arrays.sort(this.latencies);
+        }
+
+        private long tps() {
+            return latencies.length * 1_000_000_000L / elapsedNanos;
+        }
+
+        private long p99Micros() {
+            return latencies[(int) (latencies.length * 0.99) - 1] / 1_000;
+        }
+    }
+}